@@ -0,0 +1,72 @@
+package node.blockchain.ml_verification;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * WeightKernels on jdk.incubator.vector. One 8-lane vector holds the lane accumulators, and multiply and
+ * add stay separate operations rather than a fused multiply-add, so the result is bit for bit the one
+ * ScalarWeightKernels gives. Built only by the vector profile, and loaded by WeightKernels when the JVM
+ * runs with --add-modules jdk.incubator.vector.
+ */
+public class VectorWeightKernels extends WeightKernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+
+    /**
+     * @throws UnsupportedOperationException If the hardware has no 8-lane float vectors, where the scalar
+     * kernels are faster
+     */
+    public VectorWeightKernels() {
+        if (SPECIES.length() != LANES || FloatVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()) {
+            throw new UnsupportedOperationException("No " + SPECIES.vectorBitSize() + " bit vectors");
+        }
+    }
+
+    @Override
+    protected double squaredDistanceBlock(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sums = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i + LANES <= length; i += LANES) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(FloatVector.fromArray(SPECIES, b, bOffset + i));
+            sums = sums.add(difference.mul(difference));
+        }
+        float[] lanes = sums.toArray();
+        for (int lane = 0; i < length; i++, lane++) {
+            float difference = a[aOffset + i] - b[bOffset + i];
+            lanes[lane] += difference * difference;
+        }
+        return sumLanes(lanes);
+    }
+
+    @Override
+    protected double dotBlock(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sums = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i + LANES <= length; i += LANES) {
+            sums = sums.add(FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(FloatVector.fromArray(SPECIES, b, bOffset + i)));
+        }
+        float[] lanes = sums.toArray();
+        for (int lane = 0; i < length; i++, lane++) {
+            lanes[lane] += a[aOffset + i] * b[bOffset + i];
+        }
+        return sumLanes(lanes);
+    }
+
+    @Override
+    public float maxAbsDelta(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector max = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i + LANES <= length; i += LANES) {
+            max = max.max(FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(FloatVector.fromArray(SPECIES, b, bOffset + i)).abs());
+        }
+        float result = max.reduceLanes(VectorOperators.MAX);
+        for (; i < length; i++) {
+            result = Math.max(result, Math.abs(a[aOffset + i] - b[bOffset + i]));
+        }
+        return result;
+    }
+}
@@ -1,9 +1,14 @@
 import node.Node;
+import node.blockchain.ml_verification.WeightAnalysisCache;
+import node.blockchain.store.FsyncPolicy;
 import node.communication.Address;
+import node.communication.messaging.Messager;
+import node.communication.messaging.codec.WireFormat;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Properties;
 import java.util.StringTokenizer;
@@ -42,9 +47,22 @@ public class NetworkLauncher {
             int startingPort = Integer.parseInt(prop.getProperty("STARTING_PORT"));
             int quorumSize = Integer.parseInt(prop.getProperty("QUORUM"));
             int minimumTransactions = Integer.parseInt(prop.getProperty("MINIMUM_TRANSACTIONS"));
+            int memPoolCapacity = Integer.parseInt(prop.getProperty("MEMPOOL_CAPACITY", "100000"));
+            String blockStoreDir = prop.getProperty("BLOCK_STORE_DIR", "data/blocks");
+            FsyncPolicy fsyncPolicy = FsyncPolicy.valueOf(prop.getProperty("FSYNC_POLICY", "INTERVAL").toUpperCase());
+            long fsyncIntervalMillis = Long.parseLong(prop.getProperty("FSYNC_INTERVAL_MS", "1000"));
+            int snapshotInterval = Integer.parseInt(prop.getProperty("SNAPSHOT_INTERVAL", "100"));
+            int pruneDepth = Integer.parseInt(prop.getProperty("PRUNE_DEPTH", "0"));
+            String weightCacheDir = prop.getProperty("WEIGHT_CACHE_DIR", "data/weight-analysis");
+            int weightCacheSize = Integer.parseInt(prop.getProperty("WEIGHT_CACHE_SIZE", "256"));
             float percentMalicious = Float.parseFloat(prop.getProperty("PERCENT_MALICIOUS"));
             int debugLevel = Integer.parseInt(prop.getProperty("DEBUG_LEVEL"));
             String use = prop.getProperty("USE");
+            int ioThreads = Integer.parseInt(prop.getProperty("IO_THREADS",
+                    String.valueOf(Math.min(4, Runtime.getRuntime().availableProcessors()))));
+            int workerThreads = Integer.parseInt(prop.getProperty("WORKER_THREADS",
+                    String.valueOf(Messager.DEFAULT_WORKER_THREADS)));
+            WireFormat wireFormat = WireFormat.valueOf(prop.getProperty("WIRE_FORMAT", "JAVA").toUpperCase());
 
             int timedWaitDelay = 0;
             if (args.length > 0 && args[0].equals("-t")) timedWaitDelay = Integer.parseInt(args[1]);
@@ -52,15 +70,22 @@ public class NetworkLauncher {
             int numMaliciousNodes = (int) Math.ceil(numNodes * percentMalicious);
             System.out.println("Num malicious nodes: " + numMaliciousNodes);
 
+            /* Every node in this JVM shares one set of I/O and worker threads */
+            Messager.configureTransport(ioThreads, workerThreads, wireFormat);
+            /* ...and one cache of weight analysis results */
+            WeightAnalysisCache.configureShared(Paths.get(weightCacheDir), weightCacheSize);
+
             // List of node objects for the launcher to start
             ArrayList<Node> nodes = new ArrayList<>();
             for (int i = startingPort; i < startingPort + numNodes; i++) {
                 if (nodes.size() < numMaliciousNodes)
                     nodes.add(new Node(use, i, maxConnections, minConnections, numNodes,
-                            quorumSize, minimumTransactions, debugLevel, true));
+                            quorumSize, minimumTransactions, memPoolCapacity, blockStoreDir, fsyncPolicy,
+                            fsyncIntervalMillis, snapshotInterval, pruneDepth, debugLevel, true));
                 else
                     nodes.add(new Node(use, i, maxConnections, minConnections, numNodes,
-                            quorumSize, minimumTransactions, debugLevel, false));
+                            quorumSize, minimumTransactions, memPoolCapacity, blockStoreDir, fsyncPolicy,
+                            fsyncIntervalMillis, snapshotInterval, pruneDepth, debugLevel, false));
             }
 
             try {
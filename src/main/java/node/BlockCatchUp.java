@@ -0,0 +1,134 @@
+package node;
+
+import node.blockchain.Block;
+import node.communication.Address;
+import node.communication.QuorumCertificate;
+import node.communication.messaging.Message;
+import node.communication.messaging.Messager;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads a range of blocks for a node which fell behind. The range is cut into batches which are
+ * requested from different peers, several at once, and handed over strictly in order as they arrive, so
+ * checking one batch's certificates overlaps downloading the batches after it. A batch a peer could not
+ * fully serve, or which failed its checks, is asked of the next peer from the first block still missing.
+ */
+public class BlockCatchUp {
+    /* Most blocks a peer sends for one request */
+    public static final int MAX_BATCH = 64;
+    /* Times each peer may be tried for a batch before the download gives up */
+    private static final int ROUNDS = 2;
+
+    private final Address myAddress;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final LongAdder blocks;
+    private final LongAdder requests;
+    private final LongAdder retries;
+
+    /**
+     * Takes delivery of downloaded blocks in chain order
+     */
+    public interface BlockSink {
+        /**
+         * @return False if the block or its certificate does not check out
+         */
+        boolean accept(Block block, QuorumCertificate certificate);
+    }
+
+    /**
+     * @param executor Runs the requests
+     * @param batchSize Blocks asked for per request, at most MAX_BATCH
+     * @param maxInFlight Most requests outstanding at once
+     */
+    public BlockCatchUp(Address myAddress, Executor executor, int batchSize, int maxInFlight) {
+        this.myAddress = myAddress;
+        this.executor = executor;
+        this.batchSize = Math.min(batchSize, MAX_BATCH);
+        this.maxInFlight = maxInFlight;
+        this.blocks = new LongAdder();
+        this.requests = new LongAdder();
+        this.retries = new LongAdder();
+    }
+
+    /**
+     * Downloads blocks from first through last
+     * @param peers Peers to download from
+     * @param sink Checks and applies each block
+     * @return Id of the last block the sink accepted, first - 1 if none
+     */
+    public int run(int first, int last, List<Address> peers, BlockSink sink) {
+        if (peers.isEmpty()) return first - 1;
+
+        ArrayDeque<Batch> waiting = new ArrayDeque<>();
+        int index = 0;
+        for (int start = first; start <= last; start += batchSize) {
+            waiting.add(new Batch(index++, start, Math.min(start + batchSize - 1, last)));
+        }
+        HashMap<Integer, Batch> inFlight = new HashMap<>();
+
+        int next = first;
+        while (next <= last) {
+            while (inFlight.size() < maxInFlight && !waiting.isEmpty()) {
+                Batch batch = waiting.poll();
+                if (batch.attempts >= ROUNDS * peers.size()) return next - 1;
+                Address peer = peers.get((batch.index + batch.attempts) % peers.size());
+                int start = batch.start;
+                int count = batch.end - batch.start + 1;
+                batch.attempts++;
+                batch.reply = CompletableFuture.supplyAsync(() -> fetch(peer, start, count), executor);
+                inFlight.put(batch.start, batch);
+                requests.increment();
+            }
+
+            Batch batch = inFlight.remove(next);
+            if (batch == null) return next - 1;
+            for (Object entry : batch.reply.join()) {
+                Object[] pair = (Object[]) entry;
+                Block block = (Block) pair[0];
+                if (block.getBlockId() != next || !sink.accept(block, (QuorumCertificate) pair[1])) break;
+                blocks.increment();
+                next++;
+            }
+            if (next <= batch.end) {
+                batch.start = next;
+                waiting.addFirst(batch);
+                retries.increment();
+            }
+        }
+        return last;
+    }
+
+    private ArrayList<Object> fetch(Address peer, int start, int count) {
+        Message reply = Messager.sendTwoWayMessage(peer,
+                new Message(Message.Request.REQUEST_BLOCKS, new Object[]{start, count}), myAddress);
+        if (reply == null || !(reply.getMetadata() instanceof ArrayList)) return new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        ArrayList<Object> entries = (ArrayList<Object>) reply.getMetadata();
+        return entries;
+    }
+
+    @Override
+    public String toString() {
+        return "caught up blocks: " + blocks.sum() + ", requests: " + requests.sum() + ", retries: " + retries.sum();
+    }
+
+    private static class Batch {
+        private final int index;
+        private final int end;
+        private int start;
+        private int attempts;
+        private CompletableFuture<ArrayList<Object>> reply;
+
+        Batch(int index, int start, int end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Tracks which phase of the quorum protocol a node is in. Work that belongs to a phase the node has not
+ * reached yet is buffered, then handed to an executor the moment the node enters that phase, rather than
+ * holding a thread while it waits.
+ * <p>
+ * Buffered work is tagged with the round it belongs to, the id of the last block on the chain it was meant
+ * for. Work for a round the node has already left is dropped rather than replayed the next time its phase
+ * comes around, and each phase buffers at most capacity actions, evicting its oldest when full.
+ */
+public class ConsensusStateMachine {
+    /* Waiting for a block and, for quorum members, for enough transactions */
+    public static final int IDLE = 0;
+    /* Quorum members announcing they are ready */
+    public static final int QUORUM_READY = 1;
+    /* Quorum members reconciling their mempools */
+    public static final int MEMPOOL_SYNC = 2;
+    /* Quorum members signing the block they constructed */
+    public static final int SIGNING = 3;
+    /* Quorum members counting signatures */
+    public static final int TALLY = 4;
+    /* Round for work that is never stale, it runs whichever round the node is in when its phase arrives */
+    public static final int ANY_ROUND = -1;
+
+    private final Executor executor;
+    private final int capacity;
+    private final HashMap<Integer, ArrayDeque<Buffered>> buffered;
+    private int state;
+    private int round;
+
+    /**
+     * @param executor Runs buffered work once its phase arrives
+     * @param capacity Most actions buffered for any one phase
+     * @param round Id of the last block on the chain when the node starts
+     */
+    public ConsensusStateMachine(Executor executor, int capacity, int round) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.buffered = new HashMap<>();
+        this.state = IDLE;
+        this.round = round;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    /**
+     * Enters a phase and releases any work buffered for it in this round. Work buffered for earlier rounds,
+     * in any phase, is dropped
+     * @param next Phase to enter
+     * @param round Id of the last block on the chain
+     */
+    public void transition(int next, int round) {
+        ArrayList<Runnable> released = new ArrayList<>();
+        ArrayList<Buffered> stale = new ArrayList<>();
+        synchronized (this) {
+            state = next;
+            if (round != this.round) {
+                this.round = round;
+                for (ArrayDeque<Buffered> waiting : buffered.values()) {
+                    for (Iterator<Buffered> iterator = waiting.iterator(); iterator.hasNext(); ) {
+                        Buffered entry = iterator.next();
+                        if (entry.round != ANY_ROUND && entry.round < round) {
+                            iterator.remove();
+                            stale.add(entry);
+                        }
+                    }
+                }
+            }
+            ArrayDeque<Buffered> waiting = buffered.get(next);
+            if (waiting != null) {
+                /* Work for later rounds stays until the node gets there */
+                for (Iterator<Buffered> iterator = waiting.iterator(); iterator.hasNext(); ) {
+                    Buffered entry = iterator.next();
+                    if (entry.round == ANY_ROUND || entry.round == round) {
+                        iterator.remove();
+                        released.add(entry.action);
+                    }
+                }
+                if (waiting.isEmpty()) buffered.remove(next);
+            }
+        }
+        for (Buffered entry : stale) {
+            entry.onDrop.run();
+        }
+        for (Runnable action : released) {
+            executor.execute(action);
+        }
+    }
+
+    /**
+     * Runs an action now if the node is in the given phase, otherwise buffers it until the node enters it
+     * in the given round
+     * @param phase Phase the action belongs to
+     * @param round Id of the last block on the chain the action is meant for, or ANY_ROUND
+     * @param action Work to run
+     * @param onDrop Run instead of the action if it is dropped, to release what it holds
+     */
+    public void runIn(int phase, int round, Runnable action, Runnable onDrop) {
+        Runnable drop = null;
+        synchronized (this) {
+            if (round != ANY_ROUND && round < this.round) {
+                drop = onDrop;
+            } else if (state != phase || round > this.round) {
+                ArrayDeque<Buffered> waiting = buffered.computeIfAbsent(phase, k -> new ArrayDeque<>());
+                if (waiting.size() >= capacity) {
+                    drop = waiting.poll().onDrop;
+                }
+                waiting.add(new Buffered(round, action, onDrop));
+                if (drop == null) return;
+            }
+        }
+        if (drop != null) {
+            drop.run();
+            return;
+        }
+        action.run();
+    }
+
+    /**
+     * runIn for an action which holds nothing that needs releasing if it is dropped
+     */
+    public void runIn(int phase, int round, Runnable action) {
+        runIn(phase, round, action, () -> {});
+    }
+
+    private static class Buffered {
+        private final int round;
+        private final Runnable action;
+        private final Runnable onDrop;
+
+        Buffered(int round, Runnable action, Runnable onDrop) {
+            this.round = round;
+            this.action = action;
+            this.onDrop = onDrop;
+        }
+    }
+}
@@ -2,23 +2,39 @@ package node;
 
 import node.blockchain.Block;
 import node.blockchain.BlockSkeleton;
+import node.blockchain.ChainStatusReporter;
+import node.blockchain.CompactBlockSkeleton;
+import node.blockchain.MemPool;
 import node.blockchain.Transaction;
+import node.blockchain.TransactionIndex;
 import node.blockchain.TransactionValidator;
+import node.blockchain.defi.AccountSnapshot;
 import node.blockchain.defi.DefiBlock;
 import node.blockchain.defi.DefiTransaction;
 import node.blockchain.defi.DefiTransactionValidator;
+import node.blockchain.defi.PendingBalances;
 import node.blockchain.merkletree.MerkleTree;
 import node.blockchain.ml_verification.MLBlock;
 import node.blockchain.ml_verification.MLTransactionValidator;
 import node.blockchain.ml_verification.ModelData;
+import node.blockchain.ml_verification.WeightAnalysisCache;
+import node.blockchain.store.BlockStore;
+import node.blockchain.store.FsyncPolicy;
 import node.communication.Address;
 import node.communication.BlockSignature;
 import node.communication.ClientConnection;
+import node.communication.Quorum;
+import node.communication.QuorumCertificate;
 import node.communication.ServerConnection;
 import node.communication.messaging.Message;
+import node.communication.messaging.MessageExchange;
 import node.communication.messaging.Messager;
 import node.communication.messaging.MessagerPack;
 import node.communication.messaging.Message.Request;
+import node.communication.reconciliation.InvertibleBloomFilter;
+import node.communication.reconciliation.SyncStats;
+import node.communication.utils.BatchSignatureVerifier;
+import node.communication.utils.CertificateCache;
 import node.communication.utils.Hashing;
 import node.communication.utils.TaskDelegation;
 import node.communication.utils.Utils;
@@ -26,15 +42,19 @@ import node.communication.utils.Utils;
 import java.io.*;
 import java.math.BigInteger;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyPair;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static node.communication.utils.DSA.*;
-import static node.communication.utils.Hashing.getBlockHash;
-import static node.communication.utils.Hashing.getSHAString;
 import static node.communication.utils.Utils.chainString;
 import static node.communication.utils.Utils.containsAddress;
 
@@ -63,9 +83,17 @@ public class Node  {
      * @param port               Port
      * @param maxPeers           Maximum amount of peer connections to maintain
      * @param initialConnections How many nodes we want to attempt to connect to on start
+     * @param memPoolCapacity    Most pending transactions to hold before evicting the oldest, 0 for no limit
+     * @param blockStoreDir      Directory under which the node keeps its chain, in a subdirectory named by port
+     * @param fsyncPolicy        When appended blocks are forced to disk
+     * @param fsyncIntervalMillis Most time between syncs under FsyncPolicy.INTERVAL
+     * @param snapshotInterval   Blocks between Defi account snapshots, 0 for none
+     * @param pruneDepth         Most recent blocks whose bodies are always kept, 0 to never prune
      */
     public Node(String use, int port, int maxPeers, int initialConnections, int numNodes,
-                int quorumSize, int minimumTransaction, int debugLevel, boolean isMalicious) {
+                int quorumSize, int minimumTransaction, int memPoolCapacity, String blockStoreDir,
+                FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, int snapshotInterval, int pruneDepth,
+                int debugLevel, boolean isMalicious) {
         /* Configurations */
         USE = use;
         MIN_CONNECTIONS = initialConnections;
@@ -74,6 +102,11 @@ public class Node  {
         QUORUM_SIZE = quorumSize;
         DEBUG_LEVEL = debugLevel;
         MINIMUM_TRANSACTIONS = minimumTransaction;
+        BLOCK_STORE_DIR = blockStoreDir;
+        FSYNC_POLICY = fsyncPolicy;
+        FSYNC_INTERVAL_MILLIS = fsyncIntervalMillis;
+        SNAPSHOT_INTERVAL = snapshotInterval;
+        PRUNE_DEPTH = pruneDepth;
         IS_MALICIOUS = isMalicious;
 
         /* Locks for Multithreading */
@@ -90,8 +123,9 @@ public class Node  {
         /* Multithreaded Counters for Stateful Servant */
         memPoolRounds = 0;
         quorumReadyVotes = 0;
-        state = 0;
         validationResponses = 0;
+        consensus = new ConsensusStateMachine(Messager.getTransport()::dispatch,
+                memPoolCapacity > 0 ? memPoolCapacity : CONSENSUS_BUFFER, 0);
 
         InetAddress ip;
 
@@ -106,7 +140,16 @@ public class Node  {
         /* Other Data for Stateful Servant */
         myAddress = new Address(port, host);
         localPeers = new ArrayList<>();
-        memPool = new HashMap<>();
+        memPool = new MemPool(memPoolCapacity, this::onEvicted);
+        awaitingTransactions = new AtomicBoolean();
+        memPoolSyncStats = new SyncStats();
+        relayedBlocks = new ConcurrentHashMap<>();
+        certificateCache = new CertificateCache(CERTIFICATE_CACHE_SIZE);
+        catchUp = new BlockCatchUp(myAddress, Messager.getTransport()::dispatch, CATCH_UP_BATCH, CATCH_UP_IN_FLIGHT);
+        catchingUp = new AtomicBoolean();
+        catchUpTarget = new AtomicInteger();
+        pendingSkeletons = new TreeMap<>();
+        chainStatus = new ChainStatusReporter(STATUS_BLOCKS);
         accountsToAlert = new HashMap<>();
         validationVotes = new HashMap<>();
         validationComplete = false;
@@ -116,11 +159,9 @@ public class Node  {
         privateKey = keys.getPrivate();
         writePubKeyToRegistry(myAddress, keys.getPublic());
 
-        /* Begin Server Socket */
+        /* Begin serving requests on the shared transport */
         try {
-            ss = new ServerSocket(port);
-            Acceptor acceptor = new Acceptor(this);
-            acceptor.start();
+            server = Messager.getTransport().listen(port, new ServerConnection(this));
             System.out.println("Node up and running on port " + port + " " + InetAddress.getLocalHost());
         } catch (IOException e) {
             System.err.println(e);
@@ -132,17 +173,59 @@ public class Node  {
     public int getMinConnections(){return this.MIN_CONNECTIONS;}
     public Address getAddress(){return this.myAddress;}
     public ArrayList<Address> getLocalPeers(){return this.localPeers;}
-    public HashMap<String, Transaction> getMemPool(){return this.memPool;}
-    public LinkedList<Block> getBlockchain(){return blockchain;}
+    public MemPool getMemPool(){return this.memPool;}
+    public BlockStore getBlockchain(){return blockchain;}
 
     /**
      * Initializes blockchain
      */
     public void initializeBlockchain(){
-        blockchain = new LinkedList<>();
-
+        try {
+            blockchain = new BlockStore(Paths.get(BLOCK_STORE_DIR, String.valueOf(myAddress.getPort())),
+                    FSYNC_POLICY, FSYNC_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        committedTransactions = new TransactionIndex(1024);
+        latestSnapshotId = -1;
         if(USE.equals("Defi")){
             accounts = new HashMap<>();
+        }
+
+        if(blockchain.size() > 0){
+            /* Resume the chain left on disk by an earlier run, from the latest account snapshot if there is one */
+            if(USE.equals("Defi")){
+                AccountSnapshot snapshot = loadSnapshot();
+                if(snapshot != null){
+                    accounts = snapshot.getAccounts();
+                    committedTransactions.addAll(snapshot.getTransactions());
+                    latestSnapshotId = snapshot.getBlockId();
+                }else if(blockchain.getFirstId() > 0){
+                    throw new RuntimeException("Node " + myAddress.getPort() + ": blocks before "
+                            + blockchain.getFirstId() + " were pruned and no snapshot covers them");
+                }
+            }
+            for(Block block : blockchain){
+                committedTransactions.addBlock(block);
+                chainStatus.recordResumed(block);
+                if(USE.equals("Defi") && block.getBlockId() > latestSnapshotId){
+                    HashMap<String, DefiTransaction> defiTxMap = new HashMap<>();
+                    for(Map.Entry<String, Transaction> entry : block.getTxList().entrySet()){
+                        defiTxMap.put(entry.getKey(), (DefiTransaction) entry.getValue());
+                    }
+                    DefiTransactionValidator.updateAccounts(defiTxMap, accounts);
+                }
+            }
+            System.out.println("Node " + myAddress.getPort() + ": resumed " + chainStatus);
+            if(USE.equals("Defi")){
+                pendingBalances = new PendingBalances(accounts);
+            }
+            advanceRound(blockchain.getLast());
+            return;
+        }
+
+        if(USE.equals("Defi")){
+            pendingBalances = new PendingBalances(accounts);
             addBlock(new DefiBlock(new HashMap<>(), "000000", 0));
         }
         else if (USE.equals("ML")) {
@@ -219,85 +302,113 @@ public class Node  {
     }
 
     public void gossipTransaction(Transaction transaction){
+        ArrayList<Address> peers;
         synchronized (lock){
-            for(Address address : localPeers){
-                Messager.sendOneWayMessage(address, new Message(Message.Request.ADD_TRANSACTION, transaction), myAddress);
-            }
+            peers = new ArrayList<>(localPeers);
+        }
+        for(Address address : peers){
+            Messager.sendOneWayMessage(address, new Message(Message.Request.ADD_TRANSACTION, transaction), myAddress);
         }
     }
 
     public void addTransaction(Transaction transaction){
-        while(state != 0){
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        verifyTransaction(transaction);
+        consensus.runIn(ConsensusStateMachine.IDLE, ConsensusStateMachine.ANY_ROUND,
+                () -> verifyTransaction(transaction));
     }
 
     public void verifyTransaction(Transaction transaction){
-        synchronized(memPoolLock){
-            if (Utils.containsTransactionInMap(transaction, memPool)) return;
+        if (memPool.contains(transaction.getId())) return;
 
-            if (DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort() + ": verifyTransaction: "
-                        + transaction.getUID() + ", blockchain size: " + blockchain.size()); }
+        if (DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort() + ": verifyTransaction: "
+                    + transaction.getUID() + ", blockchain size: " + blockchain.size()); }
 
-            LinkedList<Block> clonedBlockchain = new LinkedList<>(blockchain);
-            for(Block block : clonedBlockchain){
-                if(block.getTxList().containsKey(getSHAString(transaction.getUID()))){
-                    // We have this transaction in a block
-                    if (DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort() + ": trans :"
-                            + transaction.getUID() + " found in prev block " + block.getBlockId()); }
+        Integer committedIn = committedTransactions.getBlockId(transaction.getId());
+        if(committedIn != null){
+            // We have this transaction in a block
+            if (DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort() + ": trans :"
+                    + transaction.getUID() + " found in prev block " + committedIn); }
+            return;
+        }
+
+        boolean added;
+        if(USE.equals("Defi")){
+            /* Balances depend on every pending transaction, so Defi validation still takes turns */
+            synchronized(memPoolLock){
+                dropUnfundedIfStale();
+                if(!new DefiTransactionValidator().validate(new Object[]{transaction, pendingBalances})){
+                    if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort() + "Transaction not valid");}
                     return;
                 }
+                added = memPool.add(transaction);
+                if(added) pendingBalances.apply((DefiTransaction) transaction);
+                dropUnfundedIfStale();
             }
+        }
+        else {
+            if(!new MLTransactionValidator().validate(new Object[]{transaction})){
+                if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort() + "Transaction not valid");}
+                return;
+            }
+            added = memPool.add(transaction);
+        }
+        if(!added) return;
 
-            TransactionValidator tv;
-            Object[] validatorObjects = new Object[3];
+        gossipTransaction(transaction);
 
-            if(USE.equals("Defi")){
-                tv = new DefiTransactionValidator();
-            
-                validatorObjects[0] = transaction;
-                validatorObjects[1] = accounts;
-                validatorObjects[2] = memPool;
+        if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort()
+                + ": Added transaction. MP:" + memPool);}
 
-            }
-            else if (USE.equals("ML")) {
-                tv = new MLTransactionValidator();
-            }
-            else { tv = new DefiTransactionValidator(); }
+        if(memPool.size() >= MINIMUM_TRANSACTIONS && awaitingTransactions.compareAndSet(true, false)){
+            Messager.getTransport().dispatch(this::sendQuorumReady);
+        }
+    }
 
-            if(!tv.validate(validatorObjects)){
-                if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort() + "Transaction not valid");}
-                return;
+    private void onEvicted(Transaction transaction){
+        if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort()
+                + ": Mempool full, evicted " + transaction.getUID());}
+        if(USE.equals("Defi")){
+            /* Only the evicted transaction's own effect is taken back, a full rebase per eviction would
+             * replay the whole mempool on every insert once it is at capacity. If pending transactions spent
+             * what it credited they are dropped by a rebase once the insert that evicted it is done */
+            synchronized(memPoolLock){
+                if(!pendingBalances.revert((DefiTransaction) transaction)) pendingBalancesStale = true;
             }
+        }
+    }
 
-            memPool.put(getSHAString(transaction.getUID()), transaction);
-            gossipTransaction(transaction);
+    /**
+     * Rebases the pending balances if an eviction left them short, dropping the pending transactions they no
+     * longer cover. Called with memPoolLock held
+     */
+    private void dropUnfundedIfStale(){
+        if(!pendingBalancesStale) return;
+        pendingBalancesStale = false;
+        dropUnfunded(pendingBalances.rebase(memPool.values()));
+    }
 
+    /* Called with memPoolLock held */
+    private void dropUnfunded(ArrayList<DefiTransaction> unfunded){
+        for(DefiTransaction transaction : unfunded){
+            memPool.remove(transaction.getId());
             if(DEBUG_LEVEL == 1){System.out.println("Node " + myAddress.getPort()
-                    + ": Added transaction. MP:" + memPool.values());}
-        }         
+                    + ": dropped unfunded " + transaction.getUID());}
+        }
     }
 
     public void sendQuorumReady(){
-        //state = 1;
-        stateChangeRequest(1);
+        stateChangeRequest(ConsensusStateMachine.QUORUM_READY);
         quorumSigs = new ArrayList<>();
         Block currentBlock = blockchain.getLast();
-        ArrayList<Address> quorum = deriveQuorum(currentBlock, 0);
+        Quorum quorum = getQuorum(currentBlock);
 
         if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + " sent quorum is ready for q: " + quorum);
 
         for(Address quorumAddress : quorum){
             if(!myAddress.equals(quorumAddress)) {
                 try {
-                    Thread.sleep(2000);
                     MessagerPack mp = Messager.sendInterestingMessage(quorumAddress,
-                            new Message(Message.Request.QUORUM_READY), myAddress);
+                            new Message(Message.Request.QUORUM_READY, currentBlock.getBlockId()), myAddress);
+                    if(mp == null) continue;
                     Message messageReceived = mp.getMessage();
                     Message reply = new Message(Message.Request.PING);
 
@@ -317,13 +428,12 @@ public class Node  {
                         }else if (blockId > currentBlock.getBlockId()){
                             // we are behind, quorum already happened / failed
                             reply = new Message(Message.Request.PING);
-                            //blockCatchUp();
+                            requestCatchUp(blockId, quorumAddress);
                         }
-                        mp.getOout().writeObject(reply);
-                        mp.getOout().flush();
+                        mp.getExchange().send(reply);
                     }
 
-                    mp.getSocket().close();
+                    mp.getExchange().close();
                 } catch (IOException e) {
                     System.out.println("Node " + myAddress.getPort()
                             + ": sendQuorumReady Received IO Exception from node " + quorumAddress.getPort());
@@ -334,18 +444,45 @@ public class Node  {
         }
     }
 
-    public void receiveQuorumReady(ObjectOutputStream oOut, ObjectInputStream oIn){
-        synchronized (quorumReadyVotesLock){
-            while(state != 1){
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Counts a quorum member's ready vote once this node is ready itself. Takes ownership of the exchange.
+     * @param blockId The member's last block. If it is ahead of ours we would never get ready, so catch up
+     */
+    public void receiveQuorumReady(MessageExchange exchange, Integer blockId){
+        int round = blockId != null ? blockId : blockchain.getLast().getBlockId();
+        if(round > blockchain.getLast().getBlockId()) requestCatchUp(round, null);
+        consensus.runIn(ConsensusStateMachine.QUORUM_READY, round, () -> {
+            try {
+                countQuorumReady(exchange);
+            } finally {
+                exchange.close();
             }
+        }, () -> Messager.getTransport().dispatch(() -> rejectQuorumReady(exchange, round)));
+    }
 
+    /**
+     * Answers a ready vote that was dropped rather than counted. A member still on an earlier round is told
+     * it is behind, as countQuorumReady would, anything else is just closed
+     */
+    private void rejectQuorumReady(MessageExchange exchange, int round){
+        try {
             Block currentBlock = blockchain.getLast();
-            ArrayList<Address> quorum = deriveQuorum(currentBlock, 0);
+            if(round < currentBlock.getBlockId()){
+                exchange.send(new Message(Message.Request.RECONCILE_BLOCK,
+                        new Object[]{currentBlock.getBlockId(), currentBlock.getHash()}));
+                exchange.receive();
+            }
+        } catch (IOException e) {
+            if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": rejectQuorumReady EOF");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void countQuorumReady(MessageExchange exchange){
+        synchronized (quorumReadyVotesLock){
+            Block currentBlock = blockchain.getLast();
+            Quorum quorum = getQuorum(currentBlock);
 
             if(DEBUG_LEVEL == 1) {
                 System.out.println("Node " + myAddress.getPort() + ": receiveQuorumReady invoked for " + quorum );
@@ -357,17 +494,15 @@ public class Node  {
                         System.out.println("Node " + myAddress.getPort()
                                 + ": not in quorum? q: " + quorum + " my addr: " + myAddress);
                     }
-                    oOut.writeObject(new Message(Message.Request.RECONCILE_BLOCK,
-                            new Object[]{currentBlock.getBlockId(), getBlockHash(currentBlock, 0)}));
-                    oOut.flush();
-                    Message reply = (Message) oIn.readObject();
+                    exchange.send(new Message(Message.Request.RECONCILE_BLOCK,
+                            new Object[]{currentBlock.getBlockId(), currentBlock.getHash()}));
+                    Message reply = exchange.receive();
 
                     if(reply.getRequest().name().equals("RECONCILE_BLOCK")){
-                        //blockCatchUp();
+                        requestCatchUp((Integer) reply.getMetadata(), null);
                     }
                 }else{
-                    oOut.writeObject(new Message(Message.Request.PING));
-                    oOut.flush();
+                    exchange.send(new Message(Message.Request.PING));
                     quorumReadyVotes++;
                     if(quorumReadyVotes == quorum.size() - 1){
                         quorumReadyVotes = 0;
@@ -378,43 +513,63 @@ public class Node  {
             } catch (IOException e) {
                 System.out.println("Node " + myAddress.getPort() + ": receiveQuorumReady EOF");
                 throw new RuntimeException(e);
-            } catch (NoSuchAlgorithmException | ClassNotFoundException e) {
-                throw new RuntimeException(e);
             }
         }
     }
 
     public void sendMemPoolHashes() {
         synchronized (memPoolLock){
-            stateChangeRequest(2);
+            stateChangeRequest(ConsensusStateMachine.MEMPOOL_SYNC);
 
             if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": sendMemPoolHashes invoked");
             
-            HashSet<String> keys = new HashSet<>(memPool.keySet());
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+            HashSet<String> keys = memPool.keySet();
+            Quorum quorum = getQuorum(blockchain.getLast());
+            /* Tables of each size asked for, built once for all quorum members */
+            HashMap<Integer, InvertibleBloomFilter> sketches = new HashMap<>();
+            /* A small mempool's ids cost less than a table */
+            boolean sendKeys = keys.size() * InvertibleBloomFilter.KEY_LENGTH
+                    <= SKETCH_CELLS * InvertibleBloomFilter.CELL_BYTES;
             
             for (Address quorumAddress : quorum) {
                 if (!myAddress.equals(quorumAddress)) {
                     try {
-                        MessagerPack mp = Messager.sendInterestingMessage(quorumAddress,
-                                new Message(Message.Request.RECEIVE_MEMPOOL, keys), myAddress);
+                        Message offer = sendKeys ? new Message(Message.Request.RECEIVE_MEMPOOL, keys)
+                                : new Message(Message.Request.RECEIVE_MEMPOOL_SKETCH,
+                                        sketches.computeIfAbsent(SKETCH_CELLS, c -> InvertibleBloomFilter.of(keys, c)));
+                        MessagerPack mp = Messager.sendInterestingMessage(quorumAddress, offer, myAddress);
+                        if(mp == null) continue;
                         Message messageReceived = mp.getMessage();
+                        while (messageReceived.getRequest() == Message.Request.REQUEST_MEMPOOL_SKETCH
+                                || messageReceived.getRequest() == Message.Request.REQUEST_MEMPOOL_KEYS) {
+                            Message reply;
+                            if (messageReceived.getRequest() == Message.Request.REQUEST_MEMPOOL_SKETCH) {
+                                int cells = Math.min((Integer) messageReceived.getMetadata(), MAX_SKETCH_CELLS);
+                                reply = new Message(Message.Request.RECEIVE_MEMPOOL_SKETCH,
+                                        sketches.computeIfAbsent(cells, c -> InvertibleBloomFilter.of(keys, c)));
+                            } else {
+                                reply = new Message(Message.Request.RECEIVE_MEMPOOL, keys);
+                            }
+                            mp.getExchange().send(reply);
+                            messageReceived = mp.getExchange().receive();
+                        }
                         if(messageReceived.getRequest().name().equals("REQUEST_TRANSACTION")){
                             ArrayList<String> hashesRequested = (ArrayList<String>) messageReceived.getMetadata();
                             if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
                                     + ": sendMempoolHashes: requested trans: " + hashesRequested);
                             ArrayList<Transaction> transactionsToSend = new ArrayList<>();
-                            for(String hash : keys){
-                                if(memPool.containsKey(hash)){
-                                    transactionsToSend.add(memPool.get(hash));
+                            for(String hash : hashesRequested){
+                                Transaction pending = memPool.get(hash);
+                                if(pending != null){
+                                    transactionsToSend.add(pending);
                                 }else{
                                     if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
                                             + ": sendMempoolHashes: requested trans not in mempool. MP: " + memPool);
                                 }
                             }
-                            mp.getOout().writeObject(new Message(Message.Request.RECEIVE_MEMPOOL, transactionsToSend));
+                            mp.getExchange().send(new Message(Message.Request.RECEIVE_MEMPOOL, transactionsToSend));
                         }
-                        mp.getSocket().close();
+                        mp.getExchange().close();
                     } catch (Exception e){
                         System.out.println(e);
                     }
@@ -423,63 +578,181 @@ public class Node  {
         }
     }
 
-    public void receiveMemPool(Set<String> keys, ObjectOutputStream oout, ObjectInputStream oin) {
-        while(state != 2){
+    /**
+     * Resolves a quorum member's mempool against ours once we are syncing mempools. Takes ownership of the
+     * exchange.
+     */
+    public void receiveMemPool(Set<String> keys, MessageExchange exchange) {
+        consensus.runIn(ConsensusStateMachine.MEMPOOL_SYNC, blockchain.getLast().getBlockId(), () -> {
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                resolveMemPool(keys, exchange);
+            } finally {
+                exchange.close();
             }
-        }
+        }, exchange::close);
+    }
 
-        resolveMemPool(keys, oout, oin);
+    /**
+     * Reconciles a quorum member's mempool table against ours once we are syncing mempools. Takes ownership
+     * of the exchange.
+     */
+    public void receiveMemPoolSketch(InvertibleBloomFilter sketch, MessageExchange exchange) {
+        consensus.runIn(ConsensusStateMachine.MEMPOOL_SYNC, blockchain.getLast().getBlockId(), () -> {
+            try {
+                reconcileMemPool(sketch, exchange);
+            } finally {
+                exchange.close();
+            }
+        }, exchange::close);
     }
 
-    public void resolveMemPool(Set<String> keys, ObjectOutputStream oout, ObjectInputStream oin) {
+    public void resolveMemPool(Set<String> keys, MessageExchange exchange) {
         synchronized(memPoolRoundsLock){
             if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": receiveMemPool invoked");
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+            Quorum quorum = getQuorum(blockchain.getLast());
             ArrayList<String> keysAbsent = new ArrayList<>();
             for (String key : keys) {
-                if (!memPool.containsKey(key)) {
+                if (!memPool.contains(key)) {
                     keysAbsent.add(key);
                 }
             }
             try {
-                if (keysAbsent.isEmpty()) {
-                    oout.writeObject(new Message(Message.Request.PING));
-                    oout.flush();
-                } else {
-                    if(DEBUG_LEVEL == 1) {System.out.println("Node " + myAddress.getPort()
-                            + ": receiveMemPool requesting transactions for: " + keysAbsent); }
-                    oout.writeObject(new Message(Message.Request.REQUEST_TRANSACTION, keysAbsent));
-                    oout.flush();
-                    Message message = (Message) oin.readObject();
-                    ArrayList<Transaction> transactionsReturned = (ArrayList<Transaction>) message.getMetadata();
-                    
-                    for(Transaction transaction : transactionsReturned){
-                        memPool.put(getSHAString(transaction.getUID()), transaction);
-                        if(DEBUG_LEVEL == 1) System.out.println("Node "
-                                + myAddress.getPort() + ": received transactions: " + keysAbsent);
+                fetchTransactions(keysAbsent, exchange);
+            } catch (IOException e) {
+                System.out.println(e);
+                throw new RuntimeException(e);
+            }
+            memPoolSyncStats.record((long) (keys.size() + keysAbsent.size()) * InvertibleBloomFilter.KEY_LENGTH,
+                    keysAbsent.isEmpty() ? 1 : 2, 0, false, keys.size(), keysAbsent.size());
+
+            countMemPoolRound(quorum);
+        }
+    }
+
+    /**
+     * Lists the transactions a quorum member has and we lack by subtracting our table from theirs. Asks for
+     * a larger table while the difference is too big to list, and for their whole key set past the
+     * largest table size.
+     */
+    public void reconcileMemPool(InvertibleBloomFilter sketch, MessageExchange exchange) {
+        synchronized(memPoolRoundsLock){
+            if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": reconcileMemPool invoked");
+            Quorum quorum = getQuorum(blockchain.getLast());
+            try {
+                long bytes = (long) sketch.size() * InvertibleBloomFilter.CELL_BYTES;
+                int roundTrips = 1, retries = 0, senderKeys;
+                boolean fellBack = false;
+                ArrayList<String> keysAbsent = new ArrayList<>();
+                while (true) {
+                    HashSet<String> keys = memPool.keySet();
+                    InvertibleBloomFilter.Difference difference =
+                            sketch.subtract(InvertibleBloomFilter.of(keys, sketch.size())).decode();
+                    if (difference != null) {
+                        keysAbsent.addAll(difference.getOnlyHere());
+                        senderKeys = keys.size() - difference.getOnlyThere().size() + keysAbsent.size();
+                        break;
+                    }
+                    if (sketch.size() * SKETCH_GROWTH > MAX_SKETCH_CELLS) {
+                        exchange.send(new Message(Message.Request.REQUEST_MEMPOOL_KEYS));
+                        Object reply = exchange.receive().getMetadata();
+                        if (!(reply instanceof Set)) throw new IOException("Expected mempool keys, got " + reply);
+                        @SuppressWarnings("unchecked")
+                        Set<String> senderKeySet = (Set<String>) reply;
+                        for (String key : senderKeySet) {
+                            if (!memPool.contains(key)) keysAbsent.add(key);
+                        }
+                        senderKeys = senderKeySet.size();
+                        bytes += (long) senderKeys * InvertibleBloomFilter.KEY_LENGTH;
+                        roundTrips++;
+                        fellBack = true;
+                        break;
                     }
+                    exchange.send(new Message(Message.Request.REQUEST_MEMPOOL_SKETCH, sketch.size() * SKETCH_GROWTH));
+                    sketch = (InvertibleBloomFilter) exchange.receive().getMetadata();
+                    bytes += Integer.BYTES + (long) sketch.size() * InvertibleBloomFilter.CELL_BYTES;
+                    roundTrips++;
+                    retries++;
                 }
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+                if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": reconcileMemPool: "
+                        + keysAbsent.size() + " missing after " + retries + " retries");
+
+                fetchTransactions(keysAbsent, exchange);
+                if (!keysAbsent.isEmpty()) {
+                    bytes += (long) keysAbsent.size() * InvertibleBloomFilter.KEY_LENGTH;
+                    roundTrips++;
+                }
+                memPoolSyncStats.record(bytes, roundTrips, retries, fellBack, senderKeys, keysAbsent.size());
             } catch (IOException e) {
                 System.out.println(e);
                 throw new RuntimeException(e);
             }
 
-            memPoolRounds++;
-            if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
-                    + ": receiveMemPool invoked: MemPoolRounds: " + memPoolRounds);
-            if(memPoolRounds == quorum.size() - 1){
-                memPoolRounds = 0;
-                constructBlock();
+            countMemPoolRound(quorum);
+        }
+    }
+
+    /* Asks the quorum member on the other end of the exchange for the transactions we lack */
+    private void fetchTransactions(ArrayList<String> keysAbsent, MessageExchange exchange) throws IOException {
+        if (keysAbsent.isEmpty()) {
+            exchange.send(new Message(Message.Request.PING));
+            return;
+        }
+        if(DEBUG_LEVEL == 1) {System.out.println("Node " + myAddress.getPort()
+                + ": receiveMemPool requesting transactions for: " + keysAbsent); }
+        exchange.send(new Message(Message.Request.REQUEST_TRANSACTION, keysAbsent));
+        Message message = exchange.receive();
+        if (!(message.getMetadata() instanceof ArrayList)) {
+            throw new IOException("Expected transactions, got " + message.getMetadata());
+        }
+        @SuppressWarnings("unchecked")
+        ArrayList<Transaction> transactionsReturned = (ArrayList<Transaction>) message.getMetadata();
+
+        synchronized (memPoolLock){
+            for(Transaction transaction : transactionsReturned){
+                if(memPool.add(transaction) && USE.equals("Defi")){
+                    pendingBalances.apply((DefiTransaction) transaction);
+                }
+                if(DEBUG_LEVEL == 1) System.out.println("Node "
+                        + myAddress.getPort() + ": received transactions: " + keysAbsent);
             }
+            if(USE.equals("Defi")) dropUnfundedIfStale();
+        }
+    }
+
+    /* Caller holds memPoolRoundsLock. Builds the block once every other member's mempool is in */
+    private void countMemPoolRound(Quorum quorum) {
+        memPoolRounds++;
+        if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
+                + ": receiveMemPool invoked: MemPoolRounds: " + memPoolRounds);
+        if(memPoolRounds == quorum.size() - 1){
+            memPoolRounds = 0;
+            if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
+                    + ": mempool sync: " + memPoolSyncStats);
+            constructBlock();
         }
     }
 
+    public SyncStats getMemPoolSyncStats() {
+        return memPoolSyncStats;
+    }
+
+    /**
+     * Answers a debug request for how the node is doing
+     * @return The chain status line followed by the mempool, sync, catch-up and certificate counters
+     */
+    public String getChainStatus() {
+        return "Node " + myAddress.getPort() + ": " + chainStatus + "\nmempool: " + memPool.size()
+                + "\nmempool sync: " + memPoolSyncStats + "\n" + catchUp + "\n" + certificateCache
+                + (USE.equals("ML") ? "\n" + WeightAnalysisCache.getShared() : "");
+    }
+
+    /**
+     * Answers a debug request for the whole chain. Renders every stored block, so it is not for routine use
+     */
+    public String getChainDump() {
+        return "Node " + myAddress.getPort() + ": " + chainString(blockchain);
+    }
+
     /**
      * Derives the training interval for the node to re-compute for validation process.
      * Uses a weight analysis-algorithm and a randomized, deterministic assignment process.
@@ -488,19 +761,14 @@ public class Node  {
      */
     public Integer deriveTask(ModelData modelData) {
         TaskDelegation taskDelegation = new TaskDelegation();
-        String blockHash;
-        try {
-            blockHash = Hashing.getBlockHash(blockchain.getLast(), 0);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        String blockHash = blockchain.getLast().getHash();
         List<Integer> intervals = taskDelegation.getIntervals(modelData, blockHash);
 
         byte[] seedBytes = blockHash.getBytes(StandardCharsets.UTF_8);
         long seed = 0;
         for (byte seedByte : seedBytes) { seed = (seed << 8) | (seedByte & 0xFF); }
 
-        ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+        ArrayList<Address> quorum = new ArrayList<>(getQuorum(blockchain.getLast()).getMembers());
         Collections.shuffle(quorum, new Random(seed));
 
         Map<String, Integer> quorumTasks = new HashMap<>();
@@ -534,7 +802,7 @@ public class Node  {
             validationVotes.computeIfAbsent(intervalIndex, k -> new ArrayList<>());
             validationVotes.get(intervalIndex).add(isValidated);
 
-            if (validationResponses == deriveQuorum(blockchain.getLast(), 0).size()) {
+            if (validationResponses == getQuorum(blockchain.getLast()).size()) {
                 validationResponses = 0;
                 intervalValidations = new HashMap<>();
                 for (Map.Entry<Integer, ArrayList<Boolean>> entry : validationVotes.entrySet()) {
@@ -555,17 +823,21 @@ public class Node  {
                 }
                 validationComplete = true;
                 validationVotes = new HashMap<>();
+                validationLock.notifyAll();
             }
         }
     }
 
     public void constructBlock(){
-        synchronized(memPoolLock){
+        /* Holding blockLock keeps tallyQuorumSigs waiting until quorumBlock is built. Ingress carries on,
+         * the block is built from a snapshot of the mempool */
+        synchronized(blockLock){
             if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": constructBlock invoked");
-            stateChangeRequest(3);
+            stateChangeRequest(ConsensusStateMachine.SIGNING);
             
             /* Make sure compiled transactions don't conflict */
             HashMap<String, Transaction> blockTransactions = new HashMap<>();
+            PendingBalances blockBalances = USE.equals("Defi") ? new PendingBalances(accounts) : null;
 
             TransactionValidator tv;
             if(USE.equals("Defi")){
@@ -576,14 +848,14 @@ public class Node  {
             }
             else { tv = new DefiTransactionValidator(); }
             
-            for(String key : memPool.keySet()){
-                Transaction transaction = memPool.get(key);
+            HashMap<String, Transaction> pending = memPool.snapshot();
+            for(String key : pending.keySet()){
+                Transaction transaction = pending.get(key);
                 Object[] validatorObjects = null;
                 if(USE.equals("Defi")){
-                    validatorObjects = new Object[3];
+                    validatorObjects = new Object[2];
                     validatorObjects[0] = transaction;
-                    validatorObjects[1] = accounts;
-                    validatorObjects[2] = blockTransactions;
+                    validatorObjects[1] = blockBalances;
                 }
                 else if (USE.equals("ML")) {
                     validatorObjects = new Object[1];
@@ -591,19 +863,33 @@ public class Node  {
                 }
                 tv.validate(validatorObjects);
                 blockTransactions.put(key, transaction);
+                if(blockBalances != null) blockBalances.apply((DefiTransaction) transaction);
             }
 
             ModelData submittedModel = (ModelData) blockTransactions.values().iterator().next();
             validateModel(submittedModel);
 
-            while (!validationComplete) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+            synchronized (validationLock) {
+                /* The other members' validations arrive as requests, so let the worker pool cover for this thread */
+                ForkJoinPool.ManagedBlocker validated = new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        validationLock.wait();
+                        return validationComplete;
+                    }
+
+                    public boolean isReleasable() {
+                        return validationComplete;
+                    }
+                };
+                while (!validationComplete) {
+                    try {
+                        ForkJoinPool.managedBlock(validated);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
                 }
+                validationComplete = false;
             }
-            validationComplete = false;
 
             boolean isVerified = true;
             for (boolean validation : intervalValidations.values()) {
@@ -613,19 +899,14 @@ public class Node  {
                 }
             }
 
-            try {
-                if(USE.equals("Defi")){
-                    quorumBlock = new DefiBlock(blockTransactions,
-                        getBlockHash(blockchain.getLast(), 0),
-                                blockchain.size());
-                }
-                else if (USE.equals("ML")) {
-                    quorumBlock = new MLBlock(blockTransactions, getBlockHash(blockchain.getLast(), 0),
-                            blockchain.size(), intervalValidations, isVerified);
-                }
-
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
+            if(USE.equals("Defi")){
+                quorumBlock = new DefiBlock(blockTransactions,
+                    blockchain.getLast().getHash(),
+                            blockchain.size());
+            }
+            else if (USE.equals("ML")) {
+                quorumBlock = new MLBlock(blockTransactions, blockchain.getLast().getHash(),
+                        blockchain.size(), intervalValidations, isVerified);
             }
 
             sendSigOfBlockHash();
@@ -633,13 +914,8 @@ public class Node  {
     }
 
     public void sendSigOfBlockHash(){
-        String blockHash;
-        byte[] sig;
-
-        try {
-            blockHash = getBlockHash(quorumBlock, 0);
-            sig = signHash(blockHash, privateKey);
-        } catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);}
+        String blockHash = quorumBlock.getHash();
+        byte[] sig = signHash(blockHash, privateKey);
 
         BlockSignature blockSignature = new BlockSignature(sig, blockHash, myAddress);
         sendOneWayMessageQuorum(new Message(Message.Request.RECEIVE_SIGNATURE, blockSignature));
@@ -649,21 +925,18 @@ public class Node  {
     }
 
     public void receiveQuorumSignature(BlockSignature signature){
-        synchronized (sigRoundsLock){
-            if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
-                    + ": 1st part receiveQuorumSignature invoked. state: " + state);}
+        if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
+                + ": 1st part receiveQuorumSignature invoked. state: " + consensus.getState());}
 
-            while(state != 3){
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        consensus.runIn(ConsensusStateMachine.SIGNING, blockchain.getLast().getBlockId(),
+                () -> tallyQuorumSignature(signature));
+    }
 
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+    private void tallyQuorumSignature(BlockSignature signature){
+        synchronized (sigRoundsLock){
+            Quorum quorum = getQuorum(blockchain.getLast());
 
-            if(!containsAddress(quorum, signature.getAddress())){
+            if(!quorum.contains(signature.getAddress())){
                 if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
                         + ": false sig from " + signature.getAddress());
                 return;
@@ -705,9 +978,8 @@ public class Node  {
 
             if (DEBUG_LEVEL == 1) {System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs invoked");}
 
-            //state = 4;
-            stateChangeRequest(4);
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+            stateChangeRequest(ConsensusStateMachine.TALLY);
+            Quorum quorum = getQuorum(blockchain.getLast());
 
             if(!inQuorum()){
                 System.out.println("Node " + myAddress.getPort()
@@ -715,229 +987,432 @@ public class Node  {
                 return;
             }
 
-            HashMap<String, Integer> hashVotes = new HashMap<>();
-            String quorumBlockHash;
-            int block = blockchain.size() - 1;
-            try {                
-                if(quorumBlock == null){
-                    System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs quorum null");
-                }
-
-                quorumBlockHash = getBlockHash(quorumBlock, 0);
-                hashVotes.put(quorumBlockHash, 1);
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
+            if(quorumBlock == null){
+                System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs quorum null");
             }
+
+            /* Our own vote counts for our block, so the block passes once every other member signed its hash */
+            String quorumBlockHash = quorumBlock.getHash();
+            ArrayList<BlockSignature> votesForBlock = new ArrayList<>();
             for (BlockSignature sig : quorumSigs) {
-                if (verifySignatureFromRegistry(sig.getHash(), sig.getSignature(), sig.getAddress())) {
-                    if (hashVotes.containsKey(sig.getHash())) {
-                        int votes = hashVotes.get(sig.getHash());
-                        votes++;
-                        hashVotes.put(sig.getHash(), votes);
-                    } else {
-                        hashVotes.put(sig.getHash(), 0);
-                    }
-                } else {
-                    // Signature has failed. Authenticity or integrity compromised
-                }
+                if (quorumBlockHash.equals(sig.getHash())) votesForBlock.add(sig);
             }
+            BatchSignatureVerifier.Result result = BatchSignatureVerifier.getShared()
+                    .verify(quorumBlockHash, votesForBlock, quorum.size() - 1);
 
-            String winningHash = quorumSigs.get(0).getHash();
-
-            for (BlockSignature blockSignature : quorumSigs) {
-                String hash = blockSignature.getHash();
-                if (hashVotes.get(hash) != null && (hashVotes.get(hash) > hashVotes.get(winningHash))) {
-                    winningHash = hash;
-                }
-            }
             if (DEBUG_LEVEL == 1) {
                 System.out.println("Node " + myAddress.getPort()
-                        + ": tallyQuorumSigs: Winning hash votes = " + hashVotes.get(winningHash));
+                        + ": tallyQuorumSigs: " + result + ". " + BatchSignatureVerifier.getShared());
             }
-            if (hashVotes.get(winningHash) == quorum.size()) {
-                if (quorumBlockHash.equals(winningHash)) {
-                    sendSkeleton();
-                    addBlock(quorumBlock);
-                    if(quorumBlock == null){
-                        System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs quorum null");
-
-                    }                    
-                } else {
-                    System.out.println("Node " + myAddress.getPort()
-                            + ": tallyQuorumSigs: quorumBlockHash does not equals(winningHash)");
-                }
+            if (result.isThresholdReached()) {
+                certificateCache.markVerified(quorumBlockHash);
+                /* On disk before any peer hears of it, and announced before the next round can hold us up */
+                Block certified = quorumBlock;
+                commitBlock(certified, QuorumCertificate.of(quorumBlockHash, quorum, votesForBlock));
+                sendSkeleton(certified, quorum);
+                advanceRound(certified);
             } else {
-                System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs: failed vote. votes: "
-                        + hashVotes + " my block " + quorumBlock.getBlockId() + " "
-                        + quorumBlockHash.substring(0, 4) + " quorumSigs: " + quorumSigs);
-            } 
-            hashVotes.clear();
+                System.out.println("Node " + myAddress.getPort() + ": tallyQuorumSigs: failed vote. "
+                        + (votesForBlock.size() + 1) + " of " + quorum.size() + " voted for my block "
+                        + quorumBlock.getBlockId() + " " + quorumBlockHash.substring(0, 4) + ", " + result
+                        + ". quorumSigs: " + quorumSigs);
+            }
             quorumSigs.clear();
         }
     }
 
     private void resetMemPool(){
         synchronized(memPoolLock){
-            memPool = new HashMap<>();
+            memPool.clear();
+            if(USE.equals("Defi")){
+                pendingBalances.rebase(accounts, memPool.values());
+                pendingBalancesStale = false;
+            }
         }
     }
 
-    public void sendSkeleton(){
+    /**
+     * Announces a block this quorum certified
+     * @param block The certified block
+     * @param quorum Quorum which certified it
+     */
+    public void sendSkeleton(Block block, Quorum quorum){
         synchronized (lock){
             if(DEBUG_LEVEL == 1) {
                 System.out.println("Node " + myAddress.getPort() + ": sendSkeleton invoked. qSigs " + quorumSigs);
             }
-            BlockSkeleton skeleton;
-            try {
-                if(quorumBlock == null){
-                    System.out.println("Node " + myAddress.getPort() + ": sendSkeleton quorum null");
-                }
-                boolean allValid = true;
-                for (boolean validation : intervalValidations.values()) {
-                    if (!validation) {
-                        allValid = false;
-                        break;
-                    }
+            boolean allValid = true;
+            for (boolean validation : intervalValidations.values()) {
+                if (!validation) {
+                    allValid = false;
+                    break;
                 }
-                skeleton = new BlockSkeleton(quorumBlock.getBlockId(), new ArrayList<>(quorumBlock.getTxList().keySet()),
-                        quorumSigs, getBlockHash(quorumBlock, 0), intervalValidations, allValid);
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
             }
+            BlockSkeleton skeleton = new BlockSkeleton(block.getBlockId(), new ArrayList<>(block.getTxList().keySet()),
+                    quorumSigs, block.getHash(), intervalValidations, allValid);
+            CompactBlockSkeleton compactSkeleton = CompactBlockSkeleton.of(skeleton, quorum, myAddress);
+            relayBlock(block);
 
             for(Address address : localPeers){
-                Messager.sendOneWayMessage(address, new Message(Message.Request.RECEIVE_SKELETON, skeleton), myAddress);
+                Messager.sendOneWayMessage(address, new Message(Message.Request.RECEIVE_SKELETON, compactSkeleton), myAddress);
             }
 
         }
     }
 
-    public void sendSkeleton(BlockSkeleton skeleton){
+    /**
+     * Forwards a skeleton we built a block from, naming ourselves as the node to fetch transactions from
+     */
+    public void sendSkeleton(CompactBlockSkeleton skeleton){
         synchronized (lock){
             if(DEBUG_LEVEL == 1) {
                 System.out.println("Node " + myAddress.getPort()
                         + ": sendSkeleton(local) invoked: BlockID " + skeleton.getBlockId());
             }
+            CompactBlockSkeleton relayed = skeleton.relayedBy(myAddress);
             for(Address address : localPeers){
                 if(!address.equals(myAddress)){
-                    Messager.sendOneWayMessage(address, new Message(Message.Request.RECEIVE_SKELETON, skeleton), myAddress);
+                    Messager.sendOneWayMessage(address, new Message(Message.Request.RECEIVE_SKELETON, relayed), myAddress);
                 }
             }
         }
     }
 
-    public void receiveSkeleton(BlockSkeleton blockSkeleton){
-        while(state != 0){
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-
-        validateSkeleton(blockSkeleton);
+    public void receiveSkeleton(CompactBlockSkeleton blockSkeleton){
+        /* Not tied to a round, validateSkeleton itself sorts out skeletons from behind or ahead of us */
+        consensus.runIn(ConsensusStateMachine.IDLE, ConsensusStateMachine.ANY_ROUND,
+                () -> validateSkeleton(blockSkeleton));
     }
 
-    public void validateSkeleton(BlockSkeleton blockSkeleton){
+    /**
+     * Checks a skeleton's certificate, rebuilds its block and commits it. Transactions we lack are fetched
+     * from the relay without blockLock held, so a slow relay does not hold up consensus, and the block is
+     * only committed if our chain has not moved on meanwhile
+     */
+    public void validateSkeleton(CompactBlockSkeleton blockSkeleton){
+        Block currentBlock;
+        QuorumCertificate certificate;
+        HashMap<String, Transaction> blockTransactions = new HashMap<>();
+        ArrayList<Long> missing;
         synchronized (blockLock){
-            Block currentBlock = blockchain.getLast();
+            currentBlock = blockchain.getLast();
 
-            if(currentBlock.getBlockId() + 1 != blockSkeleton.getBlockId()){
+            if(blockSkeleton.getBlockId() > currentBlock.getBlockId() + 1){
+                /* We missed blocks. Keep this one until the ones before it are downloaded */
+                if(blockSkeleton.getBlockId() <= currentBlock.getBlockId() + PENDING_SKELETONS){
+                    pendingSkeletons.put(blockSkeleton.getBlockId(), blockSkeleton);
+                }
+                requestCatchUp(blockSkeleton.getBlockId() - 1, blockSkeleton.getRelay());
+                return;
+            }else if(currentBlock.getBlockId() + 1 != blockSkeleton.getBlockId()){
                 return;
             }else{
                 if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
                         + ": receiveSkeleton(local) invoked. Hash: " + blockSkeleton.getHash());}
             }
 
-            ArrayList<Address> quorum = deriveQuorum(currentBlock, 0);
-            int verifiedSignatures = 0;
+            Quorum quorum = getQuorum(currentBlock);
             String hash = blockSkeleton.getHash();
 
-            if (blockSkeleton.getSignatures().size() < 1) {
-                if(DEBUG_LEVEL == 1) {
-                    System.out.println("Node " + myAddress.getPort() + ": No signatures. blockskeletonID: "
-                            + blockSkeleton.getBlockId() + ". CurrentBlockID: "
-                            + currentBlock.getBlockId() + " quorum: " + quorum );
+            certificate = blockSkeleton.getCertificate();
+            if (!certificateCache.isVerified(hash)) {
+                ArrayList<BlockSignature> quorumSignatures = certificate.getBlockHash().equals(hash)
+                        ? certificate.getBlockSignatures(quorum) : null;
+                if (quorumSignatures == null) {
+                    if(DEBUG_LEVEL == 1) {
+                        System.out.println("Node " + myAddress.getPort() + ": certificate " + certificate
+                                + " does not fit blockskeletonID: " + blockSkeleton.getBlockId()
+                                + ". CurrentBlockID: " + currentBlock.getBlockId() + " quorum: " + quorum);
+                    }
+                    return;
                 }
-            }
 
-            for (BlockSignature blockSignature : blockSkeleton.getSignatures()) {
-                Address address = blockSignature.getAddress();
-                if (containsAddress(quorum, address)){
-                    if (verifySignatureFromRegistry(hash, blockSignature.getSignature(), address)) {
-                        verifiedSignatures++;
-                    } else if (DEBUG_LEVEL == 1) {
-                        System.out.println("Node " + myAddress.getPort()
-                                + ": Failed to validate signature. blockskeletonID: " + blockSkeleton.getBlockId()
-                                + ". CurrentBlockID: " + currentBlock.getBlockId());
-                    }
-                } else if (DEBUG_LEVEL == 1) {
-                    System.out.println("Node " + myAddress.getPort()
-                        + ": blockskeletonID: " + blockSkeleton.getBlockId() + ". CurrentBlockID: "
-                        + currentBlock.getBlockId() + " quorum: " + quorum + ". Address: " + address);
+                BatchSignatureVerifier.Result result = BatchSignatureVerifier.getShared()
+                        .verify(hash, quorumSignatures, quorum.size() - 1);
+                if (!result.isThresholdReached()) {
+                    if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
+                            + ": sigs not verified for block " + blockSkeleton.getBlockId()
+                            + ". " + result + ". Needed: " + quorum.size() + " - 1."); }
+                    return;
                 }
+                certificateCache.markVerified(hash);
+                if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
+                        + ": sigs verified for block " + blockSkeleton.getBlockId() + ". " + result); }
             }
 
-            if (verifiedSignatures != quorum.size() - 1) {
-                if(DEBUG_LEVEL == 1) { System.out.println("Node " + myAddress.getPort()
-                        + ": sigs not verified for block " + blockSkeleton.getBlockId()
-                        + ". Verified sigs: " + verifiedSignatures + ". Needed: " + quorum.size() + " - 1."); }
+            missing = matchSkeleton(blockSkeleton, blockTransactions);
+        }
+
+        Block newBlock = constructBlockWithSkeleton(blockSkeleton, currentBlock, blockTransactions, missing);
+        if(newBlock == null){
+            System.out.println("Node " + myAddress.getPort() + ": could not rebuild block "
+                    + blockSkeleton.getBlockId() + " from its skeleton");
+            return;
+        }
+
+        synchronized (blockLock){
+            /* Committed meanwhile through catch-up or another copy of this skeleton */
+            Block last = blockchain.getLast();
+            if(last.getBlockId() != currentBlock.getBlockId() || !last.getHash().equals(currentBlock.getHash())){
                 return;
             }
-
-            Block newBlock = constructBlockWithSkeleton(blockSkeleton);
-            addBlock(newBlock);
+            intervalValidations = blockSkeleton.getValidatedIntervals();
+            synchronized (memPoolLock){
+                for(String key : newBlock.getTxList().keySet()){
+                    memPool.remove(key);
+                }
+            }
+            commitBlock(newBlock, certificate);
+            relayBlock(newBlock);
             sendSkeleton(blockSkeleton);
+            advanceRound(newBlock);
         }
+        applyPendingSkeleton();
     }
 
-    public Block constructBlockWithSkeleton(BlockSkeleton skeleton){
-        synchronized (memPoolLock){
-            if(DEBUG_LEVEL == 1) {
-                System.out.println("Node " + myAddress.getPort() + ": constructBlockWithSkeleton(local) invoked");
-            }
-            ArrayList<String> keys = skeleton.getKeys();
-            HashMap<String, Transaction> blockTransactions = new HashMap<>();
-            for(String key : keys){
-                if(memPool.containsKey(key)){
-                    blockTransactions.put(key, memPool.get(key));
-                    memPool.remove(key);
+    /* Applies a buffered skeleton which now follows our chain, dropping those we have passed */
+    private void applyPendingSkeleton(){
+        CompactBlockSkeleton next;
+        synchronized (blockLock){
+            int current = blockchain.getLast().getBlockId();
+            pendingSkeletons.headMap(current, true).clear();
+            next = pendingSkeletons.remove(current + 1);
+        }
+        if(next != null) receiveSkeleton(next);
+    }
+
+    /**
+     * Downloads the blocks up to targetId from our peers, once we learn the chain has moved on without us.
+     * Only one download runs at a time; a request during it raises its target.
+     * @param hint A peer known to have the blocks, asked first. May be null
+     */
+    public void requestCatchUp(int targetId, Address hint){
+        catchUpTarget.accumulateAndGet(targetId, Math::max);
+        if(!catchingUp.compareAndSet(false, true)) return;
+
+        Messager.getTransport().dispatch(() -> {
+            int target = -1;
+            boolean stalled = false;
+            try {
+                while((target = catchUpTarget.get()) > blockchain.getLast().getBlockId()){
+                    int first = blockchain.getLast().getBlockId() + 1;
+                    ArrayList<Address> peers;
+                    synchronized (lock){
+                        peers = new ArrayList<>(localPeers);
+                    }
+                    peers.remove(myAddress);
+                    if(hint != null){
+                        peers.remove(hint);
+                        peers.add(0, hint);
+                    }
+                    int reached = catchUp.run(first, target, peers, this::acceptCaughtUpBlock);
+                    if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": caught up from "
+                            + first + " to " + reached + " of " + target + ". " + catchUp);
+                    if(reached < first){
+                        stalled = true;
+                        break;
+                    }
+                    synchronized (blockLock){
+                        advanceRound(blockchain.getLast());
+                    }
                 }
+            } finally {
+                catchingUp.set(false);
             }
-            intervalValidations = skeleton.getValidatedIntervals();
-            boolean allValid = true;
-            for (boolean validation : intervalValidations.values()) {
-                if (!validation) {
-                    allValid = false;
-                    break;
+            /* A request that came in after the loop last checked the target found catchingUp still set and
+             * left it to us. A stalled run only goes again for a target it has not tried yet */
+            int raised = catchUpTarget.get();
+            if(raised > blockchain.getLast().getBlockId() && (!stalled || raised > target)){
+                requestCatchUp(raised, null);
+            }
+            applyPendingSkeleton();
+        });
+    }
+
+    /**
+     * Checks a downloaded block against our chain and its certificate, and commits it
+     * @return False if the block does not follow our chain or its quorum did not sign it
+     */
+    private boolean acceptCaughtUpBlock(Block block, QuorumCertificate certificate){
+        synchronized (blockLock){
+            Block last = blockchain.getLast();
+            /* Committed meanwhile through a skeleton. Were it a different block, the next one would not link */
+            if(block.getBlockId() <= last.getBlockId()) return true;
+            if(block.getBlockId() != last.getBlockId() + 1 || !last.getHash().equals(block.getPrevBlockHash())){
+                return false;
+            }
+
+            String hash = block.getHash();
+            if(certificate == null || !certificate.getBlockHash().equals(hash)) return false;
+            if(!certificateCache.isVerified(hash)){
+                Quorum quorum = getQuorum(last);
+                ArrayList<BlockSignature> quorumSignatures = certificate.getBlockSignatures(quorum);
+                if(quorumSignatures == null || !BatchSignatureVerifier.getShared()
+                        .verify(hash, quorumSignatures, quorum.size() - 1).isThresholdReached()){
+                    System.out.println("Node " + myAddress.getPort() + ": downloaded block " + block.getBlockId()
+                            + " is not certified by its quorum");
+                    return false;
                 }
+                certificateCache.markVerified(hash);
             }
 
-            Block newBlock = null;
-            if(USE.equals("Defi")){
-                try {
-                    newBlock = new DefiBlock(blockTransactions,
-                            getBlockHash(blockchain.getLast(), 0), blockchain.size());
+            synchronized (memPoolLock){
+                for(String key : block.getTxList().keySet()){
+                    memPool.remove(key);
                 }
-                catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
             }
-            else if (USE.equals("ML")) {
-                try {
-                    newBlock = new MLBlock(blockTransactions, getBlockHash(blockchain.getLast(), 0),
-                            blockchain.size(), intervalValidations, allValid);
+            commitBlock(block, certificate);
+            return true;
+        }
+    }
+
+    /**
+     * Answers a peer catching up
+     * @return Up to count of our blocks from fromId on, each paired with its certificate, stopping at the
+     * first block we do not have
+     */
+    public ArrayList<Object[]> getBlocks(int fromId, int count){
+        ArrayList<Object[]> blocks = new ArrayList<>();
+        int end = fromId + Math.min(count, BlockCatchUp.MAX_BATCH);
+        for(int blockId = fromId; blockId < end; blockId++){
+            Block block = blockchain.get(blockId);
+            if(block == null) break;
+            blocks.add(new Object[]{block, blockchain.getCertificate(blockId)});
+        }
+        return blocks;
+    }
+
+    /**
+     * Matches a skeleton's short ids against our mempool
+     * @param blockTransactions Receives the block transactions we have, keyed by id
+     * @return The short ids we have no transaction for
+     */
+    private ArrayList<Long> matchSkeleton(CompactBlockSkeleton skeleton, HashMap<String, Transaction> blockTransactions){
+        ArrayList<Long> missing = new ArrayList<>();
+        synchronized (memPoolLock){
+            HashMap<Long, String> keysByShortId = new HashMap<>();
+            HashSet<Long> ambiguous = new HashSet<>();
+            for(String key : memPool.keySet()){
+                long shortId = skeleton.shortId(key);
+                if(keysByShortId.putIfAbsent(shortId, key) != null) ambiguous.add(shortId);
+            }
+            for(long shortId : skeleton.getShortIds()){
+                String key = ambiguous.contains(shortId) ? null : keysByShortId.get(shortId);
+                Transaction transaction = key == null ? null : memPool.get(key);
+                if(transaction != null){
+                    blockTransactions.put(key, transaction);
+                }else{
+                    missing.add(shortId);
                 }
-                catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
             }
+        }
+        return missing;
+    }
+
+    /**
+     * Rebuilds a block from a skeleton, fetching the transactions matchSkeleton could not find from the relay
+     * @param previous The block the skeleton's block follows
+     * @return The block, or null if the relay could not supply our missing transactions
+     */
+    public Block constructBlockWithSkeleton(CompactBlockSkeleton skeleton, Block previous,
+                                            HashMap<String, Transaction> blockTransactions, ArrayList<Long> missing){
+        if(DEBUG_LEVEL == 1) {
+            System.out.println("Node " + myAddress.getPort() + ": constructBlockWithSkeleton(local) invoked");
+        }
+        if(!missing.isEmpty() && !fetchBlockTransactions(skeleton, missing, blockTransactions)) return null;
+        Block newBlock = blockFromSkeleton(skeleton, previous, blockTransactions);
+
+        if(!newBlock.getHash().equals(skeleton.getHash())){
+            /* One of our pending transactions shares a short id with a different one in the block */
+            if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort()
+                    + ": short id collision in block " + skeleton.getBlockId() + ", fetching every transaction");
+            missing.clear();
+            for(long shortId : skeleton.getShortIds()) missing.add(shortId);
+            blockTransactions = new HashMap<>();
+            if(!fetchBlockTransactions(skeleton, missing, blockTransactions)) return null;
+            newBlock = blockFromSkeleton(skeleton, previous, blockTransactions);
+            if(!newBlock.getHash().equals(skeleton.getHash())) return null;
+        }
+        return newBlock;
+    }
+
+    private Block blockFromSkeleton(CompactBlockSkeleton skeleton, Block previous,
+                                    HashMap<String, Transaction> blockTransactions){
+        HashMap<Integer, Boolean> validatedIntervals = skeleton.getValidatedIntervals();
+        boolean allValid = true;
+        for (boolean validation : validatedIntervals.values()) {
+            if (!validation) {
+                allValid = false;
+                break;
+            }
+        }
 
-            return newBlock;
+        Block newBlock = null;
+        if(USE.equals("Defi")){
+            newBlock = new DefiBlock(blockTransactions, previous.getHash(), previous.getBlockId() + 1);
+        }
+        else if (USE.equals("ML")) {
+            newBlock = new MLBlock(blockTransactions, previous.getHash(),
+                    previous.getBlockId() + 1, validatedIntervals, allValid);
         }
+
+        return newBlock;
     }
 
-    private final Object stateLock = new Object();
-    private void stateChangeRequest(int stateToChange){
-        synchronized(stateLock){
-            state = stateToChange;
+    /**
+     * Asks a skeleton's relay for the block transactions with the given short ids
+     * @return True if every one of them arrived
+     */
+    private boolean fetchBlockTransactions(CompactBlockSkeleton skeleton, ArrayList<Long> shortIds,
+                                           HashMap<String, Transaction> blockTransactions){
+        if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": fetching " + shortIds.size()
+                + " transactions of block " + skeleton.getBlockId() + " from " + skeleton.getRelay());
+        Message reply = Messager.sendTwoWayMessage(skeleton.getRelay(), new Message(
+                Message.Request.REQUEST_BLOCK_TRANSACTIONS, new Object[]{skeleton.getBlockId(), shortIds}), myAddress);
+        if(reply == null || !(reply.getMetadata() instanceof ArrayList)) return false;
+        @SuppressWarnings("unchecked")
+        ArrayList<Transaction> transactions = (ArrayList<Transaction>) reply.getMetadata();
+
+        HashSet<Long> wanted = new HashSet<>(shortIds);
+        int received = 0;
+        for(Transaction transaction : transactions){
+            if(wanted.remove(skeleton.shortId(transaction.getId()))){
+                blockTransactions.put(transaction.getId(), transaction);
+                received++;
+            }
         }
+        return received == shortIds.size();
+    }
+
+    /**
+     * Answers a peer rebuilding one of the blocks we relayed
+     * @return The block's transactions with the given short ids, as far as we have them
+     */
+    public ArrayList<Transaction> getBlockTransactions(int blockId, ArrayList<Long> shortIds){
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        Block block = relayedBlocks.get(blockId);
+        if(block == null) return transactions;
+
+        long salt = CompactBlockSkeleton.salt(block.getHash());
+        HashMap<Long, Transaction> byShortId = new HashMap<>();
+        for(Transaction transaction : block.getTxList().values()){
+            byShortId.put(CompactBlockSkeleton.shortId(salt, transaction.getId()), transaction);
+        }
+        for(long shortId : shortIds){
+            Transaction transaction = byShortId.get(shortId);
+            if(transaction != null) transactions.add(transaction);
+        }
+        return transactions;
+    }
+
+    /* Keeps the last few blocks we sent skeletons for, so peers can fetch transactions they lack */
+    private void relayBlock(Block block){
+        relayedBlocks.put(block.getBlockId(), block);
+        relayedBlocks.remove(block.getBlockId() - RELAYED_BLOCKS);
+    }
+
+    private void stateChangeRequest(int stateToChange){
+        consensus.transition(stateToChange, blockchain.getLast().getBlockId());
     }
 
     /**
@@ -945,9 +1420,15 @@ public class Node  {
      * @param block Block to add
      */
     public void addBlock(Block block){
-        stateChangeRequest(0);
-        // state = 0;
-        
+        commitBlock(block, null);
+        advanceRound(block);
+    }
+
+    /**
+     * Persists a block and applies it to the chain and accounts, without yet starting the next round
+     * @param certificate The quorum's signatures over the block, kept with it for peers catching up
+     */
+    private void commitBlock(Block block, QuorumCertificate certificate){
         HashMap<String, Transaction> txMap = block.getTxList();
         HashSet<String> keys = new HashSet<>(txMap.keySet());
         ArrayList<Transaction> txList = new ArrayList<>();
@@ -958,8 +1439,15 @@ public class Node  {
         MerkleTree mt = new MerkleTree(txList);
         if(mt.getRootNode() != null) block.setMerkleRootHash(mt.getRootNode().getHash());
 
-        blockchain.add(block);
-        System.out.println("Node " + myAddress.getPort() + ": " + chainString(blockchain) + " MP: " + memPool.values());
+        try {
+            blockchain.add(block, certificate);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        committedTransactions.addBlock(block);
+        if(USE.equals("ML")) pruneBlocks(block.getBlockId());
+        chainStatus.record(block);
+        System.out.println("Node " + myAddress.getPort() + ": " + chainStatus + " MP: " + memPool.size());
 
         if(USE.equals("Defi")){
             HashMap<String, DefiTransaction> defiTxMap = new HashMap<>();
@@ -970,6 +1458,15 @@ public class Node  {
             }
 
             DefiTransactionValidator.updateAccounts(defiTxMap, accounts);
+            if(SNAPSHOT_INTERVAL > 0 && block.getBlockId() > 0 && block.getBlockId() % SNAPSHOT_INTERVAL == 0){
+                takeSnapshot(block);
+            }
+            synchronized (memPoolLock){
+                /* The block's transactions have left the mempool and now count as committed. Pending ones that
+                 * conflicted with them are no longer covered and go */
+                dropUnfunded(pendingBalances.rebase(accounts, memPool.values()));
+                pendingBalancesStale = false;
+            }
 
             synchronized(accountsLock){
                 for(String account : accountsToAlert.keySet()){
@@ -979,7 +1476,7 @@ public class Node  {
                         // System.out.println(dtx.getFrom() + "---" + dtx.getTo());
                         if(dtx.getFrom().equals(account) ||
                         dtx.getTo().equals(account)){
-                            Messager.sendOneWayMessage(accountsToAlert.get(account), 
+                            Messager.sendStandaloneMessage(accountsToAlert.get(account), 
                             new Message(Message.Request.ALERT_WALLET, mt.getProof(txMap.get(transHash))), myAddress);
                             //System.out.println("sent update");
                         }
@@ -988,7 +1485,83 @@ public class Node  {
             }
         }
 
-        ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+    }
+
+    private Path snapshotDirectory(){
+        return Paths.get(BLOCK_STORE_DIR, String.valueOf(myAddress.getPort()), "snapshots");
+    }
+
+    /**
+     * Writes the accounts and committed transactions as they stand after a block to a snapshot, off the
+     * consensus path
+     */
+    private void takeSnapshot(Block block){
+        HashMap<String, Integer> balances = new HashMap<>(accounts);
+        HashMap<String, Integer> transactions = committedTransactions.copy();
+        Messager.getTransport().dispatch(() -> {
+            try {
+                /* A snapshot must never be ahead of the blocks that survive a crash */
+                blockchain.sync();
+                AccountSnapshot snapshot = AccountSnapshot.of(block.getBlockId(), block.getHash(),
+                        balances, transactions);
+                snapshot.write(snapshotDirectory());
+                AccountSnapshot.deleteOlder(snapshotDirectory(), SNAPSHOTS_KEPT);
+                latestSnapshotId = snapshot.getBlockId();
+                if(DEBUG_LEVEL == 1) System.out.println("Node " + myAddress.getPort() + ": snapshot at block "
+                        + snapshot.getBlockId() + ", root " + snapshot.getRoot());
+                pruneBlocks(blockchain.size() - 1);
+            } catch (IOException e) {
+                System.out.println("Node " + myAddress.getPort() + ": snapshot at block " + block.getBlockId()
+                        + " failed. " + e);
+            }
+        });
+    }
+
+    /**
+     * @return The latest snapshot on disk which belongs to our chain, or null if there is none
+     */
+    private AccountSnapshot loadSnapshot(){
+        AccountSnapshot snapshot = AccountSnapshot.readLatest(snapshotDirectory());
+        if(snapshot == null) return null;
+
+        /* The snapshot block itself may have been pruned, in which case the block after it vouches for it */
+        Block block = blockchain.get(snapshot.getBlockId());
+        Block next = blockchain.get(snapshot.getBlockId() + 1);
+        boolean onChain = block != null ? block.getHash().equals(snapshot.getBlockHash())
+                : next != null && next.getPrevBlockHash().equals(snapshot.getBlockHash());
+        if(!onChain){
+            System.out.println("Node " + myAddress.getPort() + ": snapshot at block " + snapshot.getBlockId()
+                    + " is not on our chain");
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops old block bodies, keeping the last PRUNE_DEPTH blocks and, for Defi, every block after the latest
+     * snapshot so the accounts can still be rebuilt
+     */
+    private void pruneBlocks(int lastBlockId){
+        if(PRUNE_DEPTH <= 0) return;
+        int beforeId = lastBlockId - PRUNE_DEPTH + 1;
+        if(USE.equals("Defi")) beforeId = Math.min(beforeId, latestSnapshotId + 1);
+        try {
+            /* committedTransactions keeps the pruned blocks' transactions, it is all that stops them being
+             * spent again */
+            blockchain.prune(beforeId);
+        } catch (IOException e) {
+            System.out.println("Node " + myAddress.getPort() + ": pruning failed. " + e);
+        }
+    }
+
+    /**
+     * Starts the round that follows a committed block
+     */
+    private void advanceRound(Block block){
+        /* Only now release buffered transactions and skeletons, so they are checked against the new chain */
+        stateChangeRequest(ConsensusStateMachine.IDLE);
+
+        Quorum quorum = getQuorum(blockchain.getLast());
 
         if(DEBUG_LEVEL == 1) {
             System.out.println("Node " + myAddress.getPort()
@@ -996,19 +1569,16 @@ public class Node  {
         }
 
         if(inQuorum()){
-            while(memPool.size() < MINIMUM_TRANSACTIONS){
-                try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            /* Start the next round now if we have enough transactions, otherwise verifyTransaction will */
+            awaitingTransactions.set(true);
+            if(memPool.size() >= MINIMUM_TRANSACTIONS && awaitingTransactions.compareAndSet(true, false)){
+                sendQuorumReady();
             }
-            sendQuorumReady();
         }
     }
 
     public void sendOneWayMessageQuorum(Message message){
-        ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
+        Quorum quorum = getQuorum(blockchain.getLast());
         for(Address quorumAddress : quorum){
             if(!myAddress.equals(quorumAddress)) {
                 Messager.sendOneWayMessage(quorumAddress, message, myAddress);
@@ -1018,14 +1588,7 @@ public class Node  {
 
     public boolean inQuorum(){
         synchronized (quorumLock){
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
-            boolean quorumMember = false;
-            for(Address quorumAddress : quorum){
-                if(myAddress.equals(quorumAddress)) {
-                    quorumMember = true;
-                }
-            }
-            return quorumMember;
+            return getQuorum(blockchain.getLast()).contains(myAddress);
         }
     }
 
@@ -1034,41 +1597,46 @@ public class Node  {
             if(block.getBlockId() - 1 != blockchain.getLast().getBlockId()){ // 
                 return false;
             }
-            ArrayList<Address> quorum = deriveQuorum(blockchain.getLast(), 0);
-            boolean quorumMember = false;
-            for(Address quorumAddress : quorum){
-                if(myAddress.equals(quorumAddress)) {
-                    quorumMember = true;
-                }
-            }
-            return quorumMember;
+            return getQuorum(blockchain.getLast()).contains(myAddress);
+        }
+    }
+
+    /**
+     * Quorum for the block after the given one, derived on first use and then kept with the block
+     * @param block Block the quorum follows
+     * @return The quorum, or null for a block without a previous hash
+     */
+    public Quorum getQuorum(Block block){
+        if(block == null || block.getPrevBlockHash() == null) return null;
+        Quorum quorum = block.getNextQuorum();
+        if(quorum == null){
+            quorum = new Quorum(deriveQuorum(block, 0));
+            block.setNextQuorum(quorum);
         }
+        return quorum;
     }
 
     public ArrayList<Address> deriveQuorum(Block block, int nonce){
         String blockHash;
         if(block != null && block.getPrevBlockHash() != null){
-            try {
-                ArrayList<Address> quorum = new ArrayList<>(); // New list for returning a quorum, list of addr
-                blockHash = Hashing.getBlockHash(block, nonce); // gets the hash of the block
-                BigInteger bigInt = new BigInteger(blockHash, 16); // Converts the hex hash in to a big Int
-                bigInt = bigInt.mod(BigInteger.valueOf(NUM_NODES)); // we mod the big int I guess
-                int seed = bigInt.intValue(); // This makes our seed
-                Random random = new Random(seed); // Makes our random in theory the same across all healthy nodes
-                int quorumNodeIndex; // The index from our global peers from which we select nodes to participate in next quorum
-                Address quorumNode; // The address of the node from the quorumNode Index to go in to the quorum
-                //System.out.println("Node " + myAddress.getPort() + ": block hash" + chainString(blockchain));
-                while(quorum.size() < QUORUM_SIZE){
-                    quorumNodeIndex = random.nextInt(NUM_NODES); // may be wrong but should still work
-                    quorumNode = globalPeers.get(quorumNodeIndex);
-                    if(!containsAddress(quorum, quorumNode)){
-                        quorum.add(globalPeers.get(quorumNodeIndex));
-                    }
+            ArrayList<Address> quorum = new ArrayList<>(); // New list for returning a quorum, list of addr
+            HashSet<Address> drawn = new HashSet<>(); // Same members as quorum, for constant time lookups while drawing
+            blockHash = nonce == 0 ? block.getHash() : Hashing.getBlockHash(block, nonce); // gets the hash of the block
+            BigInteger bigInt = new BigInteger(blockHash, 16); // Converts the hex hash in to a big Int
+            bigInt = bigInt.mod(BigInteger.valueOf(NUM_NODES)); // we mod the big int I guess
+            int seed = bigInt.intValue(); // This makes our seed
+            Random random = new Random(seed); // Makes our random in theory the same across all healthy nodes
+            int quorumNodeIndex; // The index from our global peers from which we select nodes to participate in next quorum
+            Address quorumNode; // The address of the node from the quorumNode Index to go in to the quorum
+            //System.out.println("Node " + myAddress.getPort() + ": block hash" + chainString(blockchain));
+            while(quorum.size() < QUORUM_SIZE){
+                quorumNodeIndex = random.nextInt(NUM_NODES); // may be wrong but should still work
+                quorumNode = globalPeers.get(quorumNodeIndex);
+                if(drawn.add(quorumNode)){
+                    quorum.add(quorumNode);
                 }
-                return quorum;
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
             }
+            return quorum;
         }
         return null;
     }
@@ -1082,33 +1650,6 @@ public class Node  {
     }
 
 
-    /**
-     * Acceptor is a thread responsible for maintaining the server socket by
-     * accepting incoming connection requests, and starting a new ServerConnection
-     * thread for each request. Requests terminate in a finite amount of steps, so
-     * threads return upon completion.
-     */
-  class Acceptor extends Thread {
-        Node node;
-
-        Acceptor(Node node){
-            this.node = node;
-        }
-
-        public void run() {
-            Socket client;
-            while (true) {
-                try {
-                    client = ss.accept();
-                    new ServerConnection(client, node).start();
-                } catch (IOException e) {
-                    System.out.println(e);
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-    }  
-
     /**
      * HeartBeatMonitor is a thread which will periodically 'ping' nodes which this node is connected to.
      * It expects a 'ping' back. Upon receiving the expected reply the other node is deemed healthy.
@@ -1156,16 +1697,47 @@ public class Node  {
     private int quorumReadyVotes, memPoolRounds, validationResponses;
     private ArrayList<Address> globalPeers;
     private final ArrayList<Address> localPeers;
-    private HashMap<String, Transaction> memPool;
+    private final MemPool memPool;
+    /* Committed balances, guarded by blockLock */
     HashMap<String, Integer> accounts;
+    /* Accounts with the mempool applied, guarded by memPoolLock */
+    private PendingBalances pendingBalances;
+    /* Set when an eviction left pendingBalances short, guarded by memPoolLock */
+    private boolean pendingBalancesStale;
     private ArrayList<BlockSignature> quorumSigs;
-    private LinkedList<Block> blockchain;
+    private BlockStore blockchain;
+    private TransactionIndex committedTransactions;
     private final Address myAddress;
-    private ServerSocket ss;
+    private ServerSocketChannel server;
     private Block quorumBlock;
     private final PrivateKey privateKey;
-    private int state;
+    private final ConsensusStateMachine consensus;
+    private final AtomicBoolean awaitingTransactions;
+    private final SyncStats memPoolSyncStats;
+    private final ConcurrentHashMap<Integer, Block> relayedBlocks;
+    private static final int RELAYED_BLOCKS = 2;
+    private final CertificateCache certificateCache;
+    private static final int CERTIFICATE_CACHE_SIZE = 64;
+    private final BlockCatchUp catchUp;
+    private final AtomicBoolean catchingUp;
+    private final AtomicInteger catchUpTarget;
+    /* Skeletons which arrived ahead of our chain, by block id. Guarded by blockLock */
+    private final TreeMap<Integer, CompactBlockSkeleton> pendingSkeletons;
+    private static final int CATCH_UP_BATCH = 16, CATCH_UP_IN_FLIGHT = 4, PENDING_SKELETONS = 16;
+    private final ChainStatusReporter chainStatus;
+    private static final int STATUS_BLOCKS = 8;
+    /* Cells in the first mempool table sent, how much larger each retry is, and the largest before
+     * falling back to the whole key set */
+    private static final int SKETCH_CELLS = 48, SKETCH_GROWTH = 4, MAX_SKETCH_CELLS = 768;
     private final String USE;
+    private final String BLOCK_STORE_DIR;
+    private final FsyncPolicy FSYNC_POLICY;
+    private final long FSYNC_INTERVAL_MILLIS;
+    private final int SNAPSHOT_INTERVAL, PRUNE_DEPTH;
+    private static final int SNAPSHOTS_KEPT = 2;
+    /* Most messages buffered for any one consensus phase when the mempool has no capacity to go by */
+    private static final int CONSENSUS_BUFFER = 4096;
+    private volatile int latestSnapshotId;
     private boolean validationComplete;
     private HashMap<Integer, ArrayList<Boolean>> validationVotes;
     private HashMap<Integer, Boolean> intervalValidations = new HashMap<>();
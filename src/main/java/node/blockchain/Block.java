@@ -1,5 +1,8 @@
 package node.blockchain;
 
+import node.communication.Quorum;
+import node.communication.utils.Hashing;
+
 import java.io.Serializable;
 import java.util.HashMap;
 
@@ -8,6 +11,10 @@ public abstract class Block implements Serializable {
     protected HashMap<String, Transaction> txList;
     protected String prevBlockHash;
     protected String merkleRootHash;
+    /* Blocks never change once built, so the hash is computed once. Not sent, the receiver recomputes it */
+    private transient volatile String hash;
+    /* Quorum for the next block, derived from this block's hash by the node holding it */
+    private transient volatile Quorum nextQuorum;
 
     public String getMerkleRootHash() {
         return merkleRootHash;
@@ -25,6 +32,26 @@ public abstract class Block implements Serializable {
         return prevBlockHash;
     }
 
+    /**
+     * @return Hashing.getBlockHash(this, 0), computed on first use
+     */
+    public String getHash() {
+        String h = hash;
+        if (h == null) {
+            h = Hashing.getBlockHash(this, 0);
+            hash = h;
+        }
+        return h;
+    }
+
+    public Quorum getNextQuorum() {
+        return nextQuorum;
+    }
+
+    public void setNextQuorum(Quorum nextQuorum) {
+        this.nextQuorum = nextQuorum;
+    }
+
     public void setMerkleRootHash(String rootHash){
         this.merkleRootHash = rootHash;
     }
@@ -0,0 +1,109 @@
+package node.blockchain;
+
+import node.blockchain.ml_verification.MLBlock;
+
+import java.util.ArrayDeque;
+
+/**
+ * A running summary of a node's chain for its log: the last few blocks, how many blocks and transactions
+ * were committed, and the rate of both over those last blocks. Each block is summarised once, when it is
+ * recorded, so a status line costs the same at block ten as at block ten million. The whole chain is still
+ * rendered by Utils.chainString, on request.
+ */
+public class ChainStatusReporter {
+    private final int recentBlocks;
+    /* Summaries of the last recentBlocks blocks, oldest first */
+    private final ArrayDeque<String> recent;
+    /* When each of the recent blocks committed in this run was recorded, and its transaction count */
+    private final ArrayDeque<long[]> timings;
+    private long blocks;
+    private long transactions;
+    private int lastBlockId;
+
+    /**
+     * @param recentBlocks Blocks shown in the status and averaged over for rates
+     */
+    public ChainStatusReporter(int recentBlocks) {
+        this.recentBlocks = recentBlocks;
+        this.recent = new ArrayDeque<>();
+        this.timings = new ArrayDeque<>();
+        this.lastBlockId = -1;
+    }
+
+    /**
+     * Records a block just committed
+     */
+    public synchronized void record(Block block) {
+        summarise(block);
+        timings.addLast(new long[]{System.nanoTime(), block.getTxList().size()});
+        if (timings.size() > recentBlocks) timings.removeFirst();
+    }
+
+    /**
+     * Records a block committed in an earlier run, which counts towards the totals but not the rates
+     */
+    public synchronized void recordResumed(Block block) {
+        summarise(block);
+    }
+
+    private void summarise(Block block) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(block.getBlockId()).append(' ').append(block.getHash(), 0, 4);
+        summary.append(" tx: ").append(block.getTxList().size());
+        if (block instanceof MLBlock) summary.append(" verified: ").append(((MLBlock) block).isVerified());
+
+        recent.addLast(summary.toString());
+        if (recent.size() > recentBlocks) recent.removeFirst();
+        blocks++;
+        transactions += block.getTxList().size();
+        lastBlockId = block.getBlockId();
+    }
+
+    public synchronized long getBlocks() { return blocks; }
+    public synchronized long getTransactions() { return transactions; }
+    public synchronized int getLastBlockId() { return lastBlockId; }
+
+    /**
+     * @return Blocks per second over the recent blocks committed in this run, 0 until there are two
+     */
+    public synchronized double getBlockRate() {
+        double seconds = windowSeconds();
+        return seconds > 0 ? (timings.size() - 1) / seconds : 0;
+    }
+
+    /**
+     * @return Transactions per second over the recent blocks committed in this run, 0 until there are two
+     */
+    public synchronized double getTransactionRate() {
+        double seconds = windowSeconds();
+        if (seconds <= 0) return 0;
+        long windowTransactions = 0;
+        boolean first = true;
+        for (long[] timing : timings) {
+            /* The first block only marks where the window starts */
+            if (!first) windowTransactions += timing[1];
+            first = false;
+        }
+        return windowTransactions / seconds;
+    }
+
+    private double windowSeconds() {
+        if (timings.size() < 2) return 0;
+        return (timings.getLast()[0] - timings.getFirst()[0]) / 1e9;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder status = new StringBuilder("Chain: [");
+        if (blocks > recent.size()) status.append("... ");
+        boolean first = true;
+        for (String summary : recent) {
+            if (!first) status.append(", ");
+            status.append(summary);
+            first = false;
+        }
+        status.append("] blocks: ").append(blocks).append(", transactions: ").append(transactions);
+        status.append(String.format(", %.2f blocks/s, %.2f tx/s", getBlockRate(), getTransactionRate()));
+        return status.toString();
+    }
+}
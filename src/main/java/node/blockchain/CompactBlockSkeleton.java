@@ -0,0 +1,101 @@
+package node.blockchain;
+
+import node.communication.Address;
+import node.communication.Quorum;
+import node.communication.QuorumCertificate;
+import node.communication.utils.Hash;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * A block skeleton which names its transactions by short ids rather than full 64 character keys.
+ * Receivers match the short ids against their own mempool and fetch only the transactions they cannot
+ * match from the relay, the node that sent them the skeleton.
+ * <p>
+ * Short ids are the low SHORT_ID_BYTES bytes of a keyed hash of the transaction id, salted with the block
+ * hash. Nobody knows the salt before the block exists, so transactions cannot be crafted to collide.
+ */
+public class CompactBlockSkeleton implements Serializable {
+    public static final int SHORT_ID_BYTES = 6;
+    private static final long SHORT_ID_MASK = (1L << (8 * SHORT_ID_BYTES)) - 1;
+
+    private final int blockId;
+    private final String hash;
+    private final long[] shortIds;
+    private final QuorumCertificate certificate;
+    private final HashMap<Integer, Boolean> validatedIntervals;
+    private final Address relay;
+    private transient long salt;
+
+    public CompactBlockSkeleton(int blockId, String hash, long[] shortIds, QuorumCertificate certificate,
+                                HashMap<Integer, Boolean> validatedIntervals, Address relay) {
+        this.blockId = blockId;
+        this.hash = hash;
+        this.shortIds = shortIds;
+        this.certificate = certificate;
+        this.validatedIntervals = validatedIntervals;
+        this.relay = relay;
+    }
+
+    /**
+     * @param quorum Quorum which signed the block, its signatures go into a certificate
+     * @param relay Node receivers should fetch unmatched transactions from
+     */
+    public static CompactBlockSkeleton of(BlockSkeleton skeleton, Quorum quorum, Address relay) {
+        long salt = salt(skeleton.getHash());
+        long[] shortIds = new long[skeleton.getKeys().size()];
+        for (int i = 0; i < shortIds.length; i++) shortIds[i] = shortId(salt, skeleton.getKeys().get(i));
+        return new CompactBlockSkeleton(skeleton.getBlockId(), skeleton.getHash(), shortIds,
+                QuorumCertificate.of(skeleton.getHash(), quorum, skeleton.getSignatures()),
+                skeleton.getValidatedIntervals(), relay);
+    }
+
+    /**
+     * @return The same skeleton, naming a different node to fetch transactions from
+     */
+    public CompactBlockSkeleton relayedBy(Address relay) {
+        return new CompactBlockSkeleton(blockId, hash, shortIds, certificate, validatedIntervals, relay);
+    }
+
+    /**
+     * @param key Hex transaction id
+     * @return The id's short id in this block
+     */
+    public long shortId(String key) {
+        if (salt == 0) salt = salt(hash);
+        return shortId(salt, key);
+    }
+
+    public static long salt(String blockHash) {
+        long salt = ByteBuffer.wrap(Hash.fromHex(blockHash).toBytes()).getLong();
+        /* Zero marks a salt not worked out yet */
+        return salt == 0 ? 1 : salt;
+    }
+
+    public static long shortId(long salt, String key) {
+        ByteBuffer id = ByteBuffer.wrap(Hash.fromHex(key).toBytes());
+        long h = salt;
+        while (id.hasRemaining()) h = mix(h ^ id.getLong());
+        return h & SHORT_ID_MASK;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public int getBlockId() { return blockId; }
+    public String getHash() { return hash; }
+    public long[] getShortIds() { return shortIds; }
+    public QuorumCertificate getCertificate() { return certificate; }
+    public Address getRelay() { return relay; }
+
+    // For ML Blocks
+    public HashMap<Integer, Boolean> getValidatedIntervals() { return validatedIntervals; }
+}
@@ -0,0 +1,142 @@
+package node.blockchain;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Transactions waiting to go in a block, keyed by transaction id.
+ * <p>
+ * Insertion and lookups go through a ConcurrentHashMap, so ingress from many connections never queues on
+ * one lock. Once more than capacity transactions are pending the oldest are evicted. Block building reads
+ * a snapshot, which ingress is free to change underneath.
+ */
+public class MemPool {
+    private final ConcurrentHashMap<String, Entry> entries;
+    /* Arrival order, for evicting the oldest. Holds entries already removed until eviction skips past them */
+    private final ConcurrentLinkedQueue<Entry> arrivals;
+    private final AtomicInteger queued;
+    private final int capacity;
+    private final Consumer<Transaction> onEvict;
+
+    /**
+     * @param capacity Most transactions to keep, or 0 for no limit
+     * @param onEvict Told about each transaction evicted to make room
+     */
+    public MemPool(int capacity, Consumer<Transaction> onEvict) {
+        this.entries = new ConcurrentHashMap<>();
+        this.arrivals = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.capacity = capacity;
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Adds a transaction unless one with the same id is already pending
+     * @return True if the transaction was added
+     */
+    public boolean add(Transaction transaction) {
+        Entry entry = new Entry(transaction);
+        if (entries.putIfAbsent(transaction.getId(), entry) != null) return false;
+        arrivals.add(entry);
+        if (queued.incrementAndGet() > 2 * entries.size() + 1024) dropStaleArrivals();
+        if (capacity > 0) evictOverflow();
+        return true;
+    }
+
+    private void evictOverflow() {
+        while (entries.size() > capacity) {
+            Entry oldest = arrivals.poll();
+            if (oldest == null) return;
+            queued.decrementAndGet();
+            if (entries.remove(oldest.transaction.getId(), oldest)) {
+                onEvict.accept(oldest.transaction);
+            }
+        }
+    }
+
+    /* Transactions leave mostly by going into blocks, which does not touch the arrival queue */
+    private void dropStaleArrivals() {
+        Iterator<Entry> iterator = arrivals.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entries.get(entry.transaction.getId()) != entry) {
+                iterator.remove();
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public Transaction get(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.transaction;
+    }
+
+    /**
+     * @return The removed transaction, or null if it was not pending
+     */
+    public Transaction remove(String id) {
+        Entry entry = entries.remove(id);
+        return entry == null ? null : entry.transaction;
+    }
+
+    public void clear() {
+        entries.clear();
+        arrivals.clear();
+        queued.set(0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Ids of the pending transactions at about this moment
+     */
+    public HashSet<String> keySet() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    /**
+     * @return Copy of the pending transactions keyed by id, for building a block from
+     */
+    public HashMap<String, Transaction> snapshot() {
+        HashMap<String, Transaction> snapshot = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().transaction);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return Pending transactions, oldest first
+     */
+    public ArrayList<Transaction> values() {
+        ArrayList<Entry> pending = new ArrayList<>(entries.values());
+        pending.sort(Comparator.comparingLong(e -> e.arrival));
+        ArrayList<Transaction> transactions = new ArrayList<>(pending.size());
+        for (Entry entry : pending) transactions.add(entry.transaction);
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return values().toString();
+    }
+
+    private static class Entry {
+        private final Transaction transaction;
+        private final long arrival;
+
+        Entry(Transaction transaction) {
+            this.transaction = transaction;
+            this.arrival = System.nanoTime();
+        }
+    }
+}
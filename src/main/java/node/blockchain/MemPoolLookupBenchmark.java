@@ -0,0 +1,66 @@
+package node.blockchain;
+
+import node.blockchain.defi.DefiTransaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the old mempool membership check, a scan of every entry comparing freshly built UIDs, with a
+ * lookup by cached transaction id, at growing mempool sizes.
+ * <p>
+ * Usage: MemPoolLookupBenchmark [largest mempool size]
+ */
+public class MemPoolLookupBenchmark {
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        System.out.printf("%10s %16s %16s%n", "mempool", "scan ns/op", "lookup ns/op");
+        for (int size = 1000; size <= largest; size *= 10) {
+            HashMap<String, Transaction> memPool = new HashMap<>();
+            Transaction[] pending = new Transaction[size];
+            for (int i = 0; i < size; i++) {
+                pending[i] = new DefiTransaction("to" + i, "from" + i, i, String.valueOf(1690000000000L + i));
+                memPool.put(pending[i].getId(), pending[i]);
+            }
+            /* Gossip mostly repeats transactions already pending, so probe with copies of them */
+            Transaction[] probes = new Transaction[1024];
+            for (int i = 0; i < probes.length; i++) {
+                DefiTransaction original = (DefiTransaction) pending[(int) ((long) i * size / probes.length)];
+                probes[i] = new DefiTransaction(original.getTo(), original.getFrom(), original.getAmount(),
+                        original.getTimestamp());
+            }
+
+            int scanIterations = Math.max(20, 2_000_000 / size);
+            int lookupIterations = 2_000_000;
+            long scanNanos = 0;
+            long lookupNanos = 0;
+            int sink = 0;
+            for (int round = 0; round < 2; round++) {
+                /* The first round only warms up the JIT */
+                long start = System.nanoTime();
+                for (int i = 0; i < scanIterations; i++) sink += scan(probes[i & 1023], memPool) ? 1 : 0;
+                scanNanos = (System.nanoTime() - start) / scanIterations;
+
+                start = System.nanoTime();
+                for (int i = 0; i < lookupIterations; i++) {
+                    sink += memPool.containsKey(probes[i & 1023].getId()) ? 1 : 0;
+                }
+                lookupNanos = (System.nanoTime() - start) / lookupIterations;
+            }
+            if (sink == 42) System.out.println();
+            System.out.printf("%10d %16d %16d%n", size, scanNanos, lookupNanos);
+        }
+    }
+
+    /* The membership check as it was, with a UID rebuilt on both sides of every comparison */
+    private static boolean scan(Transaction transaction, HashMap<String, Transaction> memPool) {
+        for (Map.Entry<String, Transaction> entry : memPool.entrySet()) {
+            Transaction other = entry.getValue();
+            if ((other.getTimestamp() + other.toString()).equals(transaction.getTimestamp() + transaction.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,11 +1,16 @@
 package node.blockchain;
 
+import node.communication.utils.Hashing;
+
 import java.io.Serializable;
 
 public abstract class Transaction implements Serializable{
     protected String timestamp;
     protected String UID;
     protected byte[] sigUID;
+    /* Derived from fields which never change after construction, so both are computed once */
+    private transient String cachedUID;
+    private transient String id;
 
     public void setSigUID(byte[] sig){
         sigUID = sig;
@@ -16,18 +21,40 @@ public abstract class Transaction implements Serializable{
     }
 
     public String getUID(){
-        return timestamp + toString();
+        String uid = cachedUID;
+        if(uid == null){
+            uid = timestamp + toString();
+            cachedUID = uid;
+        }
+        return uid;
+    }
+
+    /**
+     * @return SHA-256 of the UID, the key this transaction goes by in mempools and block tx lists
+     */
+    public String getId(){
+        String hash = id;
+        if(hash == null){
+            hash = Hashing.getSHAString(getUID());
+            id = hash;
+        }
+        return hash;
     }
 
     public String getTimestamp(){
         return timestamp;
     }
 
-    public boolean equals(Transaction transaction){
-        if(transaction.getUID().equals(this.getUID())){
-            return true;
-        }
-        return false;
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof Transaction)) return false;
+        return ((Transaction) o).getUID().equals(this.getUID());
+    }
+
+    @Override
+    public int hashCode(){
+        return getUID().hashCode();
     }
 
     abstract public String toString();
@@ -0,0 +1,81 @@
+package node.blockchain;
+
+import node.communication.utils.BloomFilter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which block each committed transaction is in, keyed by the transaction's hash as used in block tx lists.
+ * A Bloom filter in front of the map answers most lookups for new transactions without touching it.
+ * <p>
+ * Transactions stay indexed after their blocks are pruned. The index is then the only record that they were
+ * committed, and without it a resent old transaction would be accepted again.
+ */
+public class TransactionIndex {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final ConcurrentHashMap<String, Integer> blockIds;
+    private volatile BloomFilter filter;
+
+    /**
+     * @param expectedTransactions Initial sizing of the Bloom filter, which doubles whenever it fills
+     */
+    public TransactionIndex(int expectedTransactions) {
+        this.blockIds = new ConcurrentHashMap<>();
+        this.filter = new BloomFilter(expectedTransactions, FALSE_POSITIVE_RATE);
+    }
+
+    public synchronized void addBlock(Block block) {
+        for (String key : block.getTxList().keySet()) {
+            blockIds.put(key, block.getBlockId());
+            filter.add(key);
+        }
+        growIfFull();
+    }
+
+    /**
+     * Indexes transactions whose blocks may no longer be stored, such as those recorded in a snapshot
+     * @param committed Block id of each transaction, keyed by its hash
+     */
+    public synchronized void addAll(Map<String, Integer> committed) {
+        for (Map.Entry<String, Integer> entry : committed.entrySet()) {
+            blockIds.put(entry.getKey(), entry.getValue());
+            filter.add(entry.getKey());
+            growIfFull();
+        }
+    }
+
+    private void growIfFull() {
+        if (filter.isFull()) {
+            BloomFilter larger = new BloomFilter(filter.getCapacity() * 2, FALSE_POSITIVE_RATE);
+            for (String key : blockIds.keySet()) larger.add(key);
+            filter = larger;
+        }
+    }
+
+    /**
+     * @param txHash Hash of the transaction's UID
+     * @return Id of the block holding the transaction, or null if it is not committed
+     */
+    public Integer getBlockId(String txHash) {
+        if (!filter.mightContain(txHash)) return null;
+        return blockIds.get(txHash);
+    }
+
+    public boolean contains(String txHash) {
+        return getBlockId(txHash) != null;
+    }
+
+    public int size() {
+        return blockIds.size();
+    }
+
+    /**
+     * @return Block id of every indexed transaction, keyed by its hash
+     */
+    public HashMap<String, Integer> copy() {
+        return new HashMap<>(blockIds);
+    }
+}
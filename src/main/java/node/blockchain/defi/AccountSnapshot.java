@@ -0,0 +1,254 @@
+package node.blockchain.defi;
+
+import node.communication.utils.Hash;
+import node.communication.utils.Hashing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Every account balance as of one block, committed to by a Merkle root over the accounts in sorted order.
+ * A node boots from the latest snapshot plus the blocks after it instead of replaying the whole chain,
+ * and anyone holding the root can check a single balance with a proof. It also records every transaction
+ * committed up to that block, which the blocks it replaces can no longer vouch for once they are pruned.
+ * <p>
+ * On disk:
+ * <pre>
+ *     int magic | int block id | 32 byte block hash | 32 byte root | int count | (account, int balance)*
+ *     | int count | (transaction, int block id)*
+ * </pre>
+ * with each account and transaction hash written as an int length and its UTF-8 bytes. Only the accounts
+ * go into the root.
+ */
+public class AccountSnapshot {
+    private static final int MAGIC = 0x41435453;
+    private static final String SUFFIX = ".snapshot";
+    /* Leaves and inner nodes are hashed apart so neither can pass for the other */
+    private static final byte LEAF = 0, INNER = 1;
+
+    private final int blockId;
+    private final String blockHash;
+    private final TreeMap<String, Integer> balances;
+    /* Block id of each committed transaction, keyed by its hash */
+    private final HashMap<String, Integer> transactions;
+    private final byte[][][] levels;
+
+    private AccountSnapshot(int blockId, String blockHash, TreeMap<String, Integer> balances,
+                            HashMap<String, Integer> transactions) {
+        this.blockId = blockId;
+        this.blockHash = blockHash;
+        this.balances = balances;
+        this.transactions = transactions;
+        this.levels = buildLevels(balances);
+    }
+
+    /**
+     * Copies the accounts as they stand after a block
+     * @param transactions Block id of every transaction committed up to the block, keyed by its hash
+     */
+    public static AccountSnapshot of(int blockId, String blockHash, Map<String, Integer> accounts,
+                                     Map<String, Integer> transactions) {
+        return new AccountSnapshot(blockId, blockHash, new TreeMap<>(accounts), new HashMap<>(transactions));
+    }
+
+    /* Level 0 holds the leaves, the last level the root. A level of odd length pairs its last node with itself */
+    private static byte[][][] buildLevels(TreeMap<String, Integer> balances) {
+        ArrayList<byte[][]> levels = new ArrayList<>();
+        byte[][] level = new byte[balances.size()][];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : balances.entrySet()) {
+            level[i++] = leafHash(entry.getKey(), entry.getValue());
+        }
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int p = 0; p < parents.length; p++) {
+                byte[] left = level[2 * p];
+                byte[] right = 2 * p + 1 < level.length ? level[2 * p + 1] : left;
+                parents[p] = innerHash(left, right);
+            }
+            levels.add(parents);
+            level = parents;
+        }
+        return levels.toArray(new byte[0][][]);
+    }
+
+    private static byte[] leafHash(String account, int balance) {
+        MessageDigest md = Hashing.sha();
+        md.update(LEAF);
+        md.update(account.getBytes(StandardCharsets.UTF_8));
+        md.update(new byte[]{(byte) (balance >>> 24), (byte) (balance >>> 16), (byte) (balance >>> 8), (byte) balance});
+        return md.digest();
+    }
+
+    private static byte[] innerHash(byte[] left, byte[] right) {
+        MessageDigest md = Hashing.sha();
+        md.update(INNER);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    /**
+     * @return Hex Merkle root, or the hash of nothing for a snapshot without accounts
+     */
+    public String getRoot() {
+        byte[][] top = levels[levels.length - 1];
+        return Hashing.toHexString(top.length == 0 ? Hashing.getSHA(new byte[0]) : top[0]);
+    }
+
+    /**
+     * @return Sibling hashes from the account's leaf up to the root, each prefixed "1" when the sibling is
+     * on the left and "0" when on the right, as MerkleTreeProof does. Null if there is no such account
+     */
+    public ArrayList<String> getProof(String account) {
+        if (!balances.containsKey(account)) return null;
+        int index = balances.headMap(account).size();
+        ArrayList<String> proof = new ArrayList<>();
+        for (int l = 0; l < levels.length - 1; l++) {
+            byte[][] level = levels[l];
+            boolean right = (index & 1) == 1;
+            int sibling = right ? index - 1 : Math.min(index + 1, level.length - 1);
+            proof.add((right ? "1" : "0") + Hashing.toHexString(level[sibling]));
+            index >>= 1;
+        }
+        return proof;
+    }
+
+    /**
+     * Checks a balance against a snapshot root
+     */
+    public static boolean verifyProof(String root, String account, int balance, List<String> proof) {
+        byte[] hash = leafHash(account, balance);
+        for (String step : proof) {
+            byte[] sibling = Hash.fromHex(step.substring(1)).toBytes();
+            hash = step.charAt(0) == '1' ? innerHash(sibling, hash) : innerHash(hash, sibling);
+        }
+        return Hashing.toHexString(hash).equals(root);
+    }
+
+    public int getBlockId() { return blockId; }
+    public String getBlockHash() { return blockHash; }
+
+    /**
+     * @return A copy of the balances, for a node to keep as its accounts
+     */
+    public HashMap<String, Integer> getAccounts() {
+        return new HashMap<>(balances);
+    }
+
+    /**
+     * @return Block id of every transaction committed up to the snapshot, keyed by its hash
+     */
+    public Map<String, Integer> getTransactions() {
+        return Collections.unmodifiableMap(transactions);
+    }
+
+    /**
+     * Writes the snapshot into a directory, replacing the file whole so a crash never leaves half of one
+     */
+    public Path write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(String.format("%012d", blockId) + SUFFIX);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(blockId);
+            out.write(Hash.fromHex(blockHash).toBytes());
+            out.write(Hash.fromHex(getRoot()).toBytes());
+            out.writeInt(balances.size());
+            for (Map.Entry<String, Integer> entry : balances.entrySet()) {
+                byte[] account = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(account.length);
+                out.write(account);
+                out.writeInt(entry.getValue());
+            }
+            out.writeInt(transactions.size());
+            for (Map.Entry<String, Integer> entry : transactions.entrySet()) {
+                byte[] transaction = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(transaction.length);
+                out.write(transaction);
+                out.writeInt(entry.getValue());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * Reads a snapshot back, checking the accounts still hash to the root written with them
+     * @throws IOException If the file is not a snapshot or does not match its root
+     */
+    public static AccountSnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not an account snapshot");
+            int blockId = in.readInt();
+            byte[] hash = new byte[Hashing.SHA_LENGTH];
+            in.readFully(hash);
+            String blockHash = Hashing.toHexString(hash);
+            in.readFully(hash);
+            String root = Hashing.toHexString(hash);
+
+            int count = in.readInt();
+            TreeMap<String, Integer> balances = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] account = new byte[in.readInt()];
+                in.readFully(account);
+                balances.put(new String(account, StandardCharsets.UTF_8), in.readInt());
+            }
+            count = in.readInt();
+            HashMap<String, Integer> transactions = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] transaction = new byte[in.readInt()];
+                in.readFully(transaction);
+                transactions.put(new String(transaction, StandardCharsets.UTF_8), in.readInt());
+            }
+
+            AccountSnapshot snapshot = new AccountSnapshot(blockId, blockHash, balances, transactions);
+            if (!snapshot.getRoot().equals(root)) throw new IOException(file + " does not match its Merkle root");
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return The newest readable snapshot in a directory, or null if there is none
+     */
+    public static AccountSnapshot readLatest(Path directory) {
+        if (!Files.isDirectory(directory)) return null;
+        ArrayList<Path> files = list(directory);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException e) {
+                System.out.println("AccountSnapshot: skipping " + files.get(i) + ". " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes all but the newest snapshots in a directory
+     */
+    public static void deleteOlder(Path directory, int keep) throws IOException {
+        ArrayList<Path> files = list(directory);
+        for (int i = 0; i < files.size() - keep; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    /* Oldest first, file names being zero-padded block ids */
+    private static ArrayList<Path> list(Path directory) {
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        } catch (IOException e) {
+            System.out.println("AccountSnapshot: " + e);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -19,17 +19,6 @@ public class DefiTransactionValidator extends TransactionValidator{
      * @return
      */
     public static boolean isValid(Transaction t, HashMap<String, Integer> accounts, HashMap<String, Transaction> assumedT){
-        DefiTransaction transaction = (DefiTransaction) t; // Convert the generic transaction to be a DefiTransaction
-        
-        HashMap<String, DefiTransaction> assumedTransactions = new HashMap<>();
-        HashSet<String> keys = new HashSet<>(assumedT.keySet());
-
-        /* Converting each Transaction to DefiTransaction */
-        for(String key : keys){
-            DefiTransaction transactionInList = (DefiTransaction) assumedT.get(key);
-            assumedTransactions.put(key, transactionInList);
-        }
-        
         /* Two contexts to validate. Non quorum node need to validate 
         against their mempool. Quorum node needs to validate against 
         compiled mempool */
@@ -38,10 +27,43 @@ public class DefiTransactionValidator extends TransactionValidator{
         and take priority. If there is a conflict from a new transaction 
         and existing ones we choose existing ones */
 
-        HashMap<String, Integer> tempAccounts = new HashMap<>(accounts); // We make a temp set of accounts which contain all previous accounts
-        updateAccounts(assumedTransactions, tempAccounts); // We updated the temp accounts with the mempool, creating a "what-if" scenario where each transaction in mempool is valid
+        PendingBalances pending = new PendingBalances(accounts);
+        for(Transaction assumed : assumedT.values()){
+            pending.apply((DefiTransaction) assumed); // A "what-if" scenario where each assumed transaction is valid
+        }
+        return isValid(t, pending);
+    }
+
+    /**
+     * Validates a transaction against balances which already include every transaction assumed valid
+     * @param t The transaction we are deciding the validity of
+     * @param pending Balances with the mempool (or compiled block so far) applied
+     * @return
+     */
+    public static boolean isValid(Transaction t, PendingBalances pending){
+        DefiTransaction transaction = (DefiTransaction) t; // Convert the generic transaction to be a DefiTransaction
+
+        if(!isFunded(transaction, pending)) return false;
+        
+        /* Let's validate the signature */
+        String publicKeyString = transaction.getFrom(); // We get the public key in string format
+        byte[] publicKeyBytes = DSA.stringToBytes(publicKeyString); // Convert back to bytes for DSA
+        byte[] sigOfUID = transaction.getSigUID(); // Get signature of UID
+        String UID = transaction.getUID();    // Get UID
 
-        /* Check mempool also for double dipping */
+        if(!DSA.verifySignature(UID, sigOfUID, publicKeyBytes)) return false; // Validate that the sender signed the transaction
+
+        return true;
+    }
+
+    /**
+     * Checks only that the sender can cover a transaction, for transactions whose signature was already verified
+     * @param t The transaction to check
+     * @param pending Balances with every transaction before it applied
+     * @return
+     */
+    public static boolean isFunded(Transaction t, PendingBalances pending){
+        DefiTransaction transaction = (DefiTransaction) t;
 
         /* Validate Transaction */
         String fromAccount = transaction.getFrom();
@@ -49,23 +71,14 @@ public class DefiTransactionValidator extends TransactionValidator{
 
         if(amount < 0) return false; // No negatives
 
-        if(!tempAccounts.containsKey(fromAccount)) {
+        if(!pending.hasAccount(fromAccount)) {
             if(amount != 10){ // This is our cheat for now
                 return false;
             }
         }else{
-            int balance = tempAccounts.get(fromAccount);
+            int balance = pending.getBalance(fromAccount);
             if(amount > balance) return false; // Too much money trying to be spent
         }
-        
-        /* Let's validate the signature */
-        String publicKeyString = transaction.getFrom(); // We get the public key in string format
-        byte[] publicKeyBytes = DSA.stringToBytes(publicKeyString); // Convert back to bytes for DSA
-        byte[] sigOfUID = transaction.getSigUID(); // Get signature of UID
-        String UID = transaction.getUID();    // Get UID
-
-        if(!DSA.verifySignature(UID, sigOfUID, publicKeyBytes)) return false; // Validate that the sender signed the transaction
-
         return true;
     }
 
@@ -79,34 +92,42 @@ public class DefiTransactionValidator extends TransactionValidator{
 
         // For each hash of a transaction
         for(String key : keys){
-            DefiTransaction transaction = blockTxList.get(key); // Grabbing the first transaction from our list of tx using hash
-            
-            String fromAccount = transaction.getFrom();
-            String toAccount = transaction.getTo();
-            int amount = transaction.getAmount();
-
-            /* Update our accounts based on this transaction */
-            if(accounts.containsKey(toAccount)){
-                int toBalance = accounts.get(toAccount);
-                toBalance = toBalance + amount;
-                accounts.put(toAccount, toBalance);
-            }else {
-                accounts.put(toAccount, amount);
-            }
-            
-            if(accounts.containsKey(fromAccount)){
-                int fromBalance = accounts.get(fromAccount);
-                fromBalance = fromBalance - amount;
-                accounts.put(fromAccount, fromBalance);
-            }else{
-                accounts.put(fromAccount, 0); // Not sure yet if we have spent from an account that doesnt exist ie genesis
-            }
+            applyTransaction(blockTxList.get(key), accounts);
+        }
+    }
+
+    /**
+     * Update the provided accounts hashmap with one validated transaction
+     */
+    public static void applyTransaction(DefiTransaction transaction, HashMap<String, Integer> accounts){
+        String fromAccount = transaction.getFrom();
+        String toAccount = transaction.getTo();
+        int amount = transaction.getAmount();
+
+        /* Update our accounts based on this transaction */
+        if(accounts.containsKey(toAccount)){
+            int toBalance = accounts.get(toAccount);
+            toBalance = toBalance + amount;
+            accounts.put(toAccount, toBalance);
+        }else {
+            accounts.put(toAccount, amount);
+        }
+        
+        if(accounts.containsKey(fromAccount)){
+            int fromBalance = accounts.get(fromAccount);
+            fromBalance = fromBalance - amount;
+            accounts.put(fromAccount, fromBalance);
+        }else{
+            accounts.put(fromAccount, 0); // Not sure yet if we have spent from an account that doesnt exist ie genesis
         }
     }
 
     @Override
     public boolean validate(Object[] objects) {
         Transaction transaction = (Transaction) objects[0];
+        if(objects[1] instanceof PendingBalances){
+            return isValid(transaction, (PendingBalances) objects[1]);
+        }
         HashMap<String, Integer> accounts = (HashMap<String, Integer>) objects[1];
         HashMap<String, Transaction> assumedTransactions = (HashMap<String, Transaction>) objects[2];
         return isValid(transaction, accounts, assumedTransactions);
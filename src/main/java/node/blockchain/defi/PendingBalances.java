@@ -0,0 +1,110 @@
+package node.blockchain.defi;
+
+import node.blockchain.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Account balances as they would be if every pending transaction were committed: the committed accounts
+ * with the mempool applied on top. Kept up to date one transaction at a time as the mempool grows or evicts,
+ * and rebuilt only when a block commits or an eviction leaves pending transactions it funded short.
+ * <p>
+ * Holds its own copy of the committed balances, so it never reads a node's accounts outside the lock that
+ * guards them. Not thread safe. Nodes guard it with their mempool lock.
+ */
+public class PendingBalances {
+    private final HashMap<String, Integer> committed;
+    private final HashMap<String, Integer> balances;
+    /* Ids of applied transactions spending from an account that did not exist yet, which debit nothing */
+    private final HashSet<String> minted;
+    /* How many sides of applied transactions name each account */
+    private final HashMap<String, Integer> uses;
+    /* How many applied transactions spend from each account */
+    private final HashMap<String, Integer> spends;
+
+    public PendingBalances(HashMap<String, Integer> accounts) {
+        this.committed = new HashMap<>(accounts);
+        this.balances = new HashMap<>(accounts);
+        this.minted = new HashSet<>();
+        this.uses = new HashMap<>();
+        this.spends = new HashMap<>();
+    }
+
+    /**
+     * Applies a transaction which just entered the mempool
+     */
+    public void apply(DefiTransaction transaction) {
+        String from = transaction.getFrom();
+        if (!balances.containsKey(from) && !from.equals(transaction.getTo())) minted.add(transaction.getId());
+        uses.merge(transaction.getTo(), 1, Integer::sum);
+        uses.merge(from, 1, Integer::sum);
+        spends.merge(from, 1, Integer::sum);
+        DefiTransactionValidator.applyTransaction(transaction, balances);
+    }
+
+    /**
+     * Takes back a transaction which left the mempool without being committed, such as one evicted to make
+     * room. Accounts no other pending transaction names, and which are not committed, are forgotten again
+     * @return False if other pending transactions spend from an account it credited or created, and so may
+     * rely on it. Those may have to go too, see rebase
+     */
+    public boolean revert(DefiTransaction transaction) {
+        String to = transaction.getTo();
+        String from = transaction.getFrom();
+        spends.computeIfPresent(from, (name, count) -> count == 1 ? null : count - 1);
+        boolean mint = minted.remove(transaction.getId());
+        credit(to, -transaction.getAmount());
+        credit(from, mint ? 0 : transaction.getAmount());
+        return !spends.containsKey(to) && !(mint && spends.containsKey(from));
+    }
+
+    private void credit(String account, int amount) {
+        Integer left = uses.computeIfPresent(account, (name, count) -> count == 1 ? null : count - 1);
+        if (left == null && !committed.containsKey(account)) balances.remove(account);
+        else balances.put(account, balances.getOrDefault(account, 0) + amount);
+    }
+
+    /**
+     * Starts over from newly committed accounts and whatever is still pending
+     * @param accounts Committed balances
+     * @param pending Transactions still in the mempool, oldest first
+     * @return Pending transactions the balances no longer cover, which were left out
+     */
+    public ArrayList<DefiTransaction> rebase(HashMap<String, Integer> accounts, Collection<Transaction> pending) {
+        committed.clear();
+        committed.putAll(accounts);
+        return rebase(pending);
+    }
+
+    /**
+     * Starts over from the committed accounts last given and whatever is still pending. Older transactions
+     * take priority, as they do at ingress, so a transaction is left out if the ones before it spent what it
+     * needs
+     * @param pending Transactions still in the mempool, oldest first
+     * @return Pending transactions the balances no longer cover, which were left out
+     */
+    public ArrayList<DefiTransaction> rebase(Collection<Transaction> pending) {
+        balances.clear();
+        balances.putAll(committed);
+        minted.clear();
+        uses.clear();
+        spends.clear();
+        ArrayList<DefiTransaction> unfunded = new ArrayList<>();
+        for (Transaction transaction : pending) {
+            if (DefiTransactionValidator.isFunded(transaction, this)) apply((DefiTransaction) transaction);
+            else unfunded.add((DefiTransaction) transaction);
+        }
+        return unfunded;
+    }
+
+    public boolean hasAccount(String account) {
+        return balances.containsKey(account);
+    }
+
+    public int getBalance(String account) {
+        return balances.getOrDefault(account, 0);
+    }
+}
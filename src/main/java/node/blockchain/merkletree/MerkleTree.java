@@ -16,13 +16,13 @@ public class MerkleTree {
 
         /* Initializing Queue */
         for(int i = 0; i < txList.size(); i++){
-            String hash = Hashing.getSHAString(txList.get(i).getUID());
+            String hash = txList.get(i).getId();
             nodeQueue.addLast(new Node(hash, txList.get(i))); // Leaf node uses overloaded constuctor to ref tx
         }
 
         /* Odd node */
         if(txList.size() % 2 != 0){
-            String hash = Hashing.getSHAString(txList.get(txList.size() - 1).getUID());
+            String hash = txList.get(txList.size() - 1).getId();
             nodeQueue.addLast(new Node(hash, txList.get(txList.size() - 1)));
         }
 
@@ -137,7 +137,7 @@ public class MerkleTree {
 
         @Override
         public int compare(Transaction arg0, Transaction arg1) {
-            return Hashing.getSHAString(arg0.getUID()).compareTo(Hashing.getSHAString(arg1.getUID()));
+            return arg0.getId().compareTo(arg1.getId());
         }
     }
 
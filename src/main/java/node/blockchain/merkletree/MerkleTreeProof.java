@@ -30,7 +30,7 @@ public class MerkleTreeProof implements Serializable{
     }
 
     public boolean confirmMembership(){
-        String myHash = Hashing.getSHAString(transaction.getUID());
+        String myHash = transaction.getId();
         String hash1 = hashes.get(0).substring(1, hashes.get(0).length());  // Remove padding
         String hash2 = hashes.get(1).substring(1, hashes.get(1).length());  // Remove padding
 
@@ -0,0 +1,156 @@
+package node.blockchain.ml_verification;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A weight snapshot file, in WeightSnapshot's format, read in place through memory maps instead of into
+ * arrays. Opening one indexes where each tensor's values start and maps them, in windows since a buffer
+ * addresses at most 2GB; every comparison the snapshot takes part in reuses those mappings. Comparing two
+ * streams each tensor through a pair of small chunk buffers. Heap use stays the same for a model of a
+ * megabyte or of many gigabytes, and the operating system pages the files in and out.
+ */
+public class MappedWeightSnapshot implements Closeable {
+    /* Floats in one mapped window. Keeps each mapping well under the 2GB a buffer can address */
+    private static final int WINDOW_FLOATS = 1 << 26;
+    /* Floats copied out of a mapping at once. A multiple of WeightKernels.BLOCK, so the sums come out
+     * exactly as for the whole tensor in memory */
+    private static final int CHUNK_FLOATS = 4 * WeightKernels.BLOCK;
+    private static final int MAGIC = 0x42435754;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int[][] shapes;
+    private final long[] sizes;
+    /* Each tensor's values, WINDOW_FLOATS to a window. Read through duplicates, so comparisons may run at once */
+    private final FloatBuffer[][] windows;
+
+    private MappedWeightSnapshot(Path file, FileChannel channel, int[][] shapes, long[] offsets, long[] sizes)
+            throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.shapes = shapes;
+        this.sizes = sizes;
+        this.windows = new FloatBuffer[shapes.length][];
+        for (int t = 0; t < shapes.length; t++) {
+            windows[t] = new FloatBuffer[(int) ((sizes[t] + WINDOW_FLOATS - 1) / WINDOW_FLOATS)];
+            for (int w = 0; w < windows[t].length; w++) {
+                long start = (long) w * WINDOW_FLOATS;
+                windows[t][w] = map(offsets[t] + 4 * start, (int) Math.min(WINDOW_FLOATS, sizes[t] - start));
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot, reading its header and tensor shapes and mapping, but not reading, its values
+     * @throws IOException If the file is not a snapshot, or its tensors run past its end
+     */
+    public static MappedWeightSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            long position = 0;
+            ByteBuffer header = readAt(channel, position, 12);
+            if (header.getInt() != MAGIC) throw new IOException(file + " is not a weight snapshot");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException(file + " has unknown version " + version);
+            int count = header.getInt();
+            /* Each tensor takes at least its rank, so no honest count needs more than that */
+            if (count < 0 || count > (length - 12) / 4) {
+                throw new IOException(file + " has a bad tensor count " + count);
+            }
+            position += 12;
+
+            int[][] shapes = new int[count][];
+            long[] offsets = new long[count];
+            long[] sizes = new long[count];
+            for (int t = 0; t < count; t++) {
+                int rank = readAt(channel, position, 4).getInt();
+                if (rank < 0 || position + 4 + 4L * rank > length) throw new IOException(file + " is malformed");
+                ByteBuffer dimensions = readAt(channel, position + 4, 4 * rank);
+                int[] shape = new int[rank];
+                long size = 1;
+                for (int d = 0; d < rank; d++) {
+                    shape[d] = dimensions.getInt();
+                    if (shape[d] < 0) throw new IOException(file + " has a negative dimension");
+                    try {
+                        size = Math.multiplyExact(size, shape[d]);
+                    } catch (ArithmeticException e) {
+                        throw new IOException(file + " has a tensor too large to address", e);
+                    }
+                }
+                position += 4 + 4L * rank;
+                if (size > (length - position) / 4) throw new IOException(file + " is truncated");
+                shapes[t] = shape;
+                offsets[t] = position;
+                sizes[t] = size;
+                position += 4 * size;
+            }
+            return new MappedWeightSnapshot(file, channel, shapes, offsets, sizes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The same measure as WeightSnapshot.distance, the sum over tensors of the L2 norm of their difference,
+     * streamed from both files
+     * @throws IllegalArgumentException If the snapshots are not of the same model
+     */
+    public double distance(MappedWeightSnapshot other) throws IOException {
+        if (shapes.length != other.shapes.length) {
+            throw new IllegalArgumentException(file + " and " + other.file + " have different tensor counts");
+        }
+        WeightKernels kernels = WeightKernels.get();
+        float[] a = new float[CHUNK_FLOATS];
+        float[] b = new float[CHUNK_FLOATS];
+        double sum = 0;
+        for (int t = 0; t < shapes.length; t++) {
+            if (sizes[t] != other.sizes[t]) throw new IllegalArgumentException("Tensor " + t + " differs in size");
+            double squares = 0;
+            for (int w = 0; w < windows[t].length; w++) {
+                FloatBuffer mine = windows[t][w].duplicate();
+                FloatBuffer theirs = other.windows[t][w].duplicate();
+                while (mine.hasRemaining()) {
+                    int chunk = Math.min(CHUNK_FLOATS, mine.remaining());
+                    mine.get(a, 0, chunk);
+                    theirs.get(b, 0, chunk);
+                    squares += kernels.squaredDistance(a, 0, b, 0, chunk);
+                }
+            }
+            sum += Math.sqrt(squares);
+        }
+        return sum;
+    }
+
+    /* Big-endian, as the file is written */
+    private FloatBuffer map(long position, int floats) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * floats).asFloatBuffer();
+    }
+
+    public Path getFile() { return file; }
+    public int getTensorCount() { return shapes.length; }
+    public int[] getShape(int tensor) { return shapes[tensor]; }
+    public long getSize(int tensor) { return sizes[tensor]; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
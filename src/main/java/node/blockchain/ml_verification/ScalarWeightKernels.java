@@ -0,0 +1,53 @@
+package node.blockchain.ml_verification;
+
+/**
+ * WeightKernels in plain Java. The sums keep eight independent running totals in locals, unrolled by hand,
+ * so C2 schedules eight multiply-add chains side by side instead of waiting on one total. C2 will not turn a
+ * float sum into SIMD instructions itself, since that would reorder the additions; VectorWeightKernels does
+ * so explicitly, in the same order as these lanes. A maximum has no such order, so it stays a plain loop.
+ */
+public class ScalarWeightKernels extends WeightKernels {
+    @Override
+    protected double squaredDistanceBlock(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int i = 0;
+        for (; i + LANES <= length; i += LANES) {
+            int x = aOffset + i, y = bOffset + i;
+            float d0 = a[x] - b[y], d1 = a[x + 1] - b[y + 1], d2 = a[x + 2] - b[y + 2], d3 = a[x + 3] - b[y + 3];
+            float d4 = a[x + 4] - b[y + 4], d5 = a[x + 5] - b[y + 5], d6 = a[x + 6] - b[y + 6], d7 = a[x + 7] - b[y + 7];
+            s0 += d0 * d0; s1 += d1 * d1; s2 += d2 * d2; s3 += d3 * d3;
+            s4 += d4 * d4; s5 += d5 * d5; s6 += d6 * d6; s7 += d7 * d7;
+        }
+        float[] lanes = {s0, s1, s2, s3, s4, s5, s6, s7};
+        for (int lane = 0; i < length; i++, lane++) {
+            float difference = a[aOffset + i] - b[bOffset + i];
+            lanes[lane] += difference * difference;
+        }
+        return sumLanes(lanes);
+    }
+
+    @Override
+    protected double dotBlock(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+        int i = 0;
+        for (; i + LANES <= length; i += LANES) {
+            int x = aOffset + i, y = bOffset + i;
+            s0 += a[x] * b[y]; s1 += a[x + 1] * b[y + 1]; s2 += a[x + 2] * b[y + 2]; s3 += a[x + 3] * b[y + 3];
+            s4 += a[x + 4] * b[y + 4]; s5 += a[x + 5] * b[y + 5]; s6 += a[x + 6] * b[y + 6]; s7 += a[x + 7] * b[y + 7];
+        }
+        float[] lanes = {s0, s1, s2, s3, s4, s5, s6, s7};
+        for (int lane = 0; i < length; i++, lane++) {
+            lanes[lane] += a[aOffset + i] * b[bOffset + i];
+        }
+        return sumLanes(lanes);
+    }
+
+    @Override
+    public float maxAbsDelta(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float max = 0;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, Math.abs(a[aOffset + i] - b[bOffset + i]));
+        }
+        return max;
+    }
+}
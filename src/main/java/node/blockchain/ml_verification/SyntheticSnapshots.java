@@ -0,0 +1,77 @@
+package node.blockchain.ml_verification;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Writes the snapshots of a made-up model, shaped like a small dense classifier, whose weights drift a
+ * little each interval except in the poisoned intervals, where they jump. Then runs WeightAnalysis over
+ * them and checks it flags exactly the poisoned intervals, which makes the directory a fixture for the
+ * engine and for anything that calls it, without Keras or real training runs.
+ * <p>
+ * Usage: SyntheticSnapshots directory [snapshots] [poisoned intervals, comma separated]
+ */
+public class SyntheticSnapshots {
+    private static final int[][] SHAPES = {{784, 128}, {128}, {128, 10}, {10}};
+    /* Distance between consecutive snapshots, summed over tensors as WeightAnalysis measures it */
+    private static final double CLEAN_STEP = 1, POISONED_STEP = 12;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "synthetic_model");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 21;
+        TreeSet<Integer> poisoned = new TreeSet<>();
+        for (String interval : (args.length > 2 ? args[2] : "4,10,13").split(",")) {
+            poisoned.add(Integer.parseInt(interval.trim()));
+        }
+
+        write(directory, count, poisoned, 42);
+
+        WeightAnalysis.Report report = WeightAnalysis.report(directory);
+        List<Integer> flagged = report.getSuspicious();
+
+        System.out.println("Wrote " + count + " snapshots to " + directory + ", poisoned " + poisoned);
+        System.out.println(report);
+        System.out.println("WeightAnalysis flagged " + flagged);
+        if (!flagged.equals(new ArrayList<>(poisoned))) {
+            System.out.println("Expected " + poisoned);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes count snapshots of the made-up model
+     * @param poisoned Intervals i whose step from snapshot i to i + 1 exceeds the threshold
+     */
+    public static void write(Path directory, int count, Set<Integer> poisoned, long seed) throws IOException {
+        Files.createDirectories(directory);
+        Random random = new Random(seed);
+        float[][] tensors = new float[SHAPES.length][];
+        for (int t = 0; t < SHAPES.length; t++) {
+            tensors[t] = new float[size(SHAPES[t])];
+            for (int i = 0; i < tensors[t].length; i++) tensors[t][i] = (float) (random.nextGaussian() * 0.05);
+        }
+
+        for (int snapshot = 0; snapshot < count; snapshot++) {
+            if (snapshot > 0) {
+                double step = poisoned.contains(snapshot - 1) ? POISONED_STEP : CLEAN_STEP;
+                for (float[] tensor : tensors) {
+                    /* Each tensor moves an equal share of the step, in a random direction */
+                    double sigma = step / SHAPES.length / Math.sqrt(tensor.length);
+                    for (int i = 0; i < tensor.length; i++) tensor[i] += (float) (random.nextGaussian() * sigma);
+                }
+            }
+            float[][] copy = new float[tensors.length][];
+            for (int t = 0; t < tensors.length; t++) copy[t] = tensors[t].clone();
+            new WeightSnapshot(SHAPES, copy).write(directory.resolve(snapshot + WeightSnapshot.SUFFIX));
+        }
+    }
+
+    private static int size(int[] shape) {
+        int size = 1;
+        for (int dimension : shape) size *= dimension;
+        return size;
+    }
+}
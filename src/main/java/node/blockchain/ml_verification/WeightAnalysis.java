@@ -0,0 +1,147 @@
+package node.blockchain.ml_verification;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Flags the training intervals of a model whose weights moved suspiciously far, the way weight_analysis.py
+ * does, but in the node's own JVM and from exported weight snapshots rather than Keras models. Snapshots
+ * are streamed from memory-mapped files and never loaded into the heap. Each is opened once and shared by
+ * the two intervals either side of it, and the intervals are compared in parallel.
+ */
+public class WeightAnalysis {
+    /* THRESHOLD in weight_analysis.py */
+    public static final double THRESHOLD = 4;
+    private static final Pattern SNAPSHOT = Pattern.compile("^(\\d+)" + Pattern.quote(WeightSnapshot.SUFFIX) + "$");
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param modelDir Directory of a model's exported snapshots
+     * @return Interval i for every pair of consecutive snapshots i and i + 1 further apart than THRESHOLD
+     * @throws IOException If there are no snapshots, or one cannot be read or belongs to another model
+     */
+    public static List<Integer> analyse(Path modelDir) throws IOException {
+        return report(modelDir).getSuspicious();
+    }
+
+    /**
+     * Compares every pair of consecutive snapshots, one task per interval
+     * @return Each interval's distance and how long it took
+     * @throws IOException If there are no snapshots, or one cannot be read or belongs to another model
+     */
+    public static Report report(Path modelDir) throws IOException {
+        List<Path> files = listSnapshots(modelDir);
+        if (files.isEmpty()) throw new IOException("No " + WeightSnapshot.SUFFIX + " snapshots in " + modelDir);
+
+        long start = System.nanoTime();
+        MappedWeightSnapshot[] snapshots = new MappedWeightSnapshot[files.size()];
+        try {
+            for (int i = 0; i < snapshots.length; i++) snapshots[i] = MappedWeightSnapshot.open(files.get(i));
+
+            double[] distances = new double[snapshots.length - 1];
+            long[] nanos = new long[distances.length];
+            ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < distances.length; i++) {
+                int interval = i;
+                tasks.add(POOL.submit(() -> {
+                    long begin = System.nanoTime();
+                    distances[interval] = snapshots[interval].distance(snapshots[interval + 1]);
+                    nanos[interval] = System.nanoTime() - begin;
+                    return null;
+                }));
+            }
+
+            /* Every task must finish before the snapshots are closed under it, failed or not */
+            IOException failure = null;
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    tasks.get(i).get();
+                } catch (ExecutionException e) {
+                    if (failure != null) continue;
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(files.get(i + 1) + " does not match " + files.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) failure = new InterruptedIOException("Weight analysis of " + modelDir);
+                }
+            }
+            if (failure != null) throw failure;
+            return new Report(distances, nanos, System.nanoTime() - start);
+        } finally {
+            for (MappedWeightSnapshot snapshot : snapshots) {
+                if (snapshot != null) snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * What an analysis found and how long each interval took
+     */
+    public static class Report {
+        private final double[] distances;
+        private final long[] intervalNanos;
+        private final long nanos;
+
+        Report(double[] distances, long[] intervalNanos, long nanos) {
+            this.distances = distances;
+            this.intervalNanos = intervalNanos;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return The intervals further apart than THRESHOLD, in order
+         */
+        public List<Integer> getSuspicious() {
+            ArrayList<Integer> suspicious = new ArrayList<>();
+            for (int i = 0; i < distances.length; i++) {
+                if (distances[i] > THRESHOLD) suspicious.add(i);
+            }
+            return suspicious;
+        }
+
+        public double[] getDistances() { return distances; }
+        public long[] getIntervalNanos() { return intervalNanos; }
+        public long getNanos() { return nanos; }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            for (int i = 0; i < distances.length; i++) {
+                report.append(String.format("interval %2d: distance %8.3f%s, %.2f ms%n", i, distances[i],
+                        distances[i] > THRESHOLD ? " suspicious" : "", intervalNanos[i] / 1e6));
+            }
+            return report.append(String.format("%d intervals in %.2f ms", distances.length, nanos / 1e6)).toString();
+        }
+    }
+
+    /**
+     * @return The snapshot files in a model directory, in interval order
+     */
+    public static List<Path> listSnapshots(Path modelDir) throws IOException {
+        ArrayList<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(modelDir)) {
+            for (Path file : stream) {
+                if (SNAPSHOT.matcher(file.getFileName().toString()).matches()) snapshots.add(file);
+            }
+        }
+        snapshots.sort(Comparator.comparingLong(WeightAnalysis::intervalOf));
+        return snapshots;
+    }
+
+    private static long intervalOf(Path snapshot) {
+        Matcher matcher = SNAPSHOT.matcher(snapshot.getFileName().toString());
+        matcher.matches();
+        return Long.parseLong(matcher.group(1));
+    }
+}
@@ -0,0 +1,219 @@
+package node.blockchain.ml_verification;
+
+import node.communication.utils.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Weight analysis results keyed by the content of a model's snapshots, so each distinct model is analysed
+ * once however many quorum members ask, and a resubmitted model is not analysed again under a new path.
+ * Results are kept in a bounded in-memory LRU in front of one small file per model on disk, and every node
+ * in the JVM shares one cache. While one node analyses a model, others asking for it wait for its result.
+ * <p>
+ * The key is a SHA-256 over the analysis parameters and each snapshot's interval and bytes. Working it out
+ * still reads the snapshots, so the key of a directory is remembered as long as none of its snapshot files
+ * changes size or modification time.
+ */
+public class WeightAnalysisCache {
+    /* Changes whenever WeightAnalysis would give a different answer for the same snapshots */
+    private static final String VERSION = "weight analysis 2, threshold " + WeightAnalysis.THRESHOLD;
+    private static final String SUFFIX = ".result";
+
+    private static volatile WeightAnalysisCache shared = new WeightAnalysisCache(null, 256);
+
+    private final Path directory;
+    private final int capacity;
+    private final LinkedHashMap<String, List<Integer>> results;
+    private final ConcurrentHashMap<String, CompletableFuture<List<Integer>>> running;
+    private final ConcurrentHashMap<Path, Key> keys;
+    private final LongAdder memoryHits;
+    private final LongAdder diskHits;
+    private final LongAdder waits;
+    private final LongAdder misses;
+    private final LongAdder analysisNanos;
+
+    /**
+     * @param directory Where results are kept on disk, null to keep them in memory only
+     * @param capacity Most results kept in memory
+     */
+    public WeightAnalysisCache(Path directory, int capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<String, List<Integer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Integer>> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.running = new ConcurrentHashMap<>();
+        this.keys = new ConcurrentHashMap<>();
+        this.memoryHits = new LongAdder();
+        this.diskHits = new LongAdder();
+        this.waits = new LongAdder();
+        this.misses = new LongAdder();
+        this.analysisNanos = new LongAdder();
+    }
+
+    /**
+     * @return The cache every node in this JVM uses
+     */
+    public static WeightAnalysisCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the shared cache, before any node starts analysing
+     */
+    public static void configureShared(Path directory, int capacity) {
+        shared = new WeightAnalysisCache(directory, capacity);
+    }
+
+    /**
+     * WeightAnalysis.analyse, answered from the cache when this model was analysed before
+     * @return The suspicious intervals, unmodifiable
+     */
+    public List<Integer> analyse(Path modelDir) throws IOException {
+        String key = key(modelDir);
+        List<Integer> result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result != null) {
+            memoryHits.increment();
+            return result;
+        }
+
+        CompletableFuture<List<Integer>> mine = new CompletableFuture<>();
+        CompletableFuture<List<Integer>> theirs = running.putIfAbsent(key, mine);
+        if (theirs != null) {
+            waits.increment();
+            return join(theirs);
+        }
+        try {
+            result = readResult(key);
+            if (result != null) {
+                diskHits.increment();
+            } else {
+                misses.increment();
+                long start = System.nanoTime();
+                result = Collections.unmodifiableList(WeightAnalysis.analyse(modelDir));
+                analysisNanos.add(System.nanoTime() - start);
+                writeResult(key, result);
+            }
+            synchronized (results) {
+                results.put(key, result);
+            }
+            mine.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, mine);
+        }
+    }
+
+    private static List<Integer> join(CompletableFuture<List<Integer>> result) throws IOException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Hex SHA-256 over the analysis version and the model's snapshots
+     */
+    public String key(Path modelDir) throws IOException {
+        List<Path> snapshots = WeightAnalysis.listSnapshots(modelDir);
+        StringBuilder stat = new StringBuilder();
+        for (Path snapshot : snapshots) {
+            BasicFileAttributes attributes = Files.readAttributes(snapshot, BasicFileAttributes.class);
+            stat.append(snapshot.getFileName()).append(' ').append(attributes.size()).append(' ')
+                    .append(attributes.lastModifiedTime().toMillis()).append('\n');
+        }
+        Path directory = modelDir.toAbsolutePath().normalize();
+        Key known = keys.get(directory);
+        if (known != null && known.stat.equals(stat.toString())) return known.hash;
+
+        MessageDigest md = Hashing.sha();
+        md.update(VERSION.getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[1 << 16];
+        for (Path snapshot : snapshots) {
+            md.update((byte) 0);
+            md.update(snapshot.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            try (InputStream in = Files.newInputStream(snapshot)) {
+                for (int read; (read = in.read(buffer)) > 0; ) md.update(buffer, 0, read);
+            }
+        }
+        String hash = Hashing.toHexString(md.digest());
+        if (keys.size() >= capacity) keys.clear();
+        keys.put(directory, new Key(stat.toString(), hash));
+        return hash;
+    }
+
+    private List<Integer> readResult(String key) {
+        if (directory == null) return null;
+        Path file = directory.resolve(key + SUFFIX);
+        if (!Files.exists(file)) return null;
+        try {
+            String line = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            ArrayList<Integer> intervals = new ArrayList<>();
+            if (!line.isEmpty()) {
+                for (String interval : line.split(",")) intervals.add(Integer.parseInt(interval.trim()));
+            }
+            return Collections.unmodifiableList(intervals);
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("WeightAnalysisCache: ignoring " + file + ". " + e);
+            return null;
+        }
+    }
+
+    /* Written whole through a temporary file, so a reader never sees half a result */
+    private void writeResult(String key, List<Integer> result) {
+        if (directory == null) return;
+        StringBuilder line = new StringBuilder();
+        for (int interval : result) {
+            if (line.length() > 0) line.append(',');
+            line.append(interval);
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, line.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("WeightAnalysisCache: could not store result " + key + ". " + e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "weight analysis memory hits: " + memoryHits.sum() + ", disk hits: " + diskHits.sum()
+                + ", shared: " + waits.sum() + ", misses: " + misses.sum()
+                + String.format(", analysis ms: %.1f", analysisNanos.sum() / 1e6);
+    }
+
+    private static class Key {
+        private final String stat;
+        private final String hash;
+
+        Key(String stat, String hash) {
+            this.stat = stat;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package node.blockchain.ml_verification;
+
+/**
+ * The arithmetic weight analysis spends its time in: distances between two models' weight arrays.
+ * <p>
+ * Sums are kept in LANES float accumulators, element i going to lane i % LANES, over blocks of BLOCK
+ * elements; each block's lanes are then added in a fixed order into a double. Every implementation follows
+ * exactly that order, so they all return the same bits and quorum members agree on which intervals cross
+ * the threshold whichever implementation they run. Callers may split an array into pieces as long as every
+ * piece but the last is a multiple of BLOCK.
+ * <p>
+ * ScalarWeightKernels is plain Java shaped for the JIT. VectorWeightKernels, built by the vector
+ * profile from src/main/java-vector, uses jdk.incubator.vector instead and is picked at runtime when it
+ * was built and the JVM runs with --add-modules jdk.incubator.vector. The system property weights.kernels
+ * set to scalar or vector forces the choice.
+ */
+public abstract class WeightKernels {
+    public static final int LANES = 8;
+    public static final int BLOCK = 1 << 12;
+    private static final String VECTOR_KERNELS = "node.blockchain.ml_verification.VectorWeightKernels";
+    private static final WeightKernels SELECTED = select();
+
+    /**
+     * @return The fastest implementation available in this JVM
+     */
+    public static WeightKernels get() {
+        return SELECTED;
+    }
+
+    private static WeightKernels select() {
+        String wanted = System.getProperty("weights.kernels", "auto");
+        if (!wanted.equals("scalar")) {
+            try {
+                return (WeightKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+                if (wanted.equals("vector")) System.out.println("WeightKernels: no vector kernels, using scalar. " + e);
+            }
+        }
+        return new ScalarWeightKernels();
+    }
+
+    /**
+     * @return Sum over i of (a[aOffset + i] - b[bOffset + i])^2
+     */
+    public double squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int done = 0; done < length; done += BLOCK) {
+            sum += squaredDistanceBlock(a, aOffset + done, b, bOffset + done, Math.min(BLOCK, length - done));
+        }
+        return sum;
+    }
+
+    /**
+     * @return Sum over i of a[aOffset + i] * b[bOffset + i]
+     */
+    public double dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int done = 0; done < length; done += BLOCK) {
+            sum += dotBlock(a, aOffset + done, b, bOffset + done, Math.min(BLOCK, length - done));
+        }
+        return sum;
+    }
+
+    /**
+     * @return Sum over i of a[offset + i]^2
+     */
+    public double squaredNorm(float[] a, int offset, int length) {
+        return dot(a, offset, a, offset, length);
+    }
+
+    /**
+     * @return Largest |a[aOffset + i] - b[bOffset + i]|, 0 for no elements
+     */
+    public abstract float maxAbsDelta(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /* At most BLOCK elements, summed in lanes as the class comment lays out */
+    protected abstract double squaredDistanceBlock(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    protected abstract double dotBlock(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Adds up a block's lanes, pairwise, in the order every implementation uses
+     */
+    protected static double sumLanes(float[] lanes) {
+        return ((double) (lanes[0] + lanes[1]) + (double) (lanes[2] + lanes[3]))
+                + ((double) (lanes[4] + lanes[5]) + (double) (lanes[6] + lanes[7]));
+    }
+
+    /**
+     * @return ||a - b||
+     */
+    public static double l2Distance(float[] a, float[] b) {
+        checkLengths(a, b);
+        return Math.sqrt(get().squaredDistance(a, 0, b, 0, a.length));
+    }
+
+    /**
+     * @return 1 - cos of the angle between a and b. 0 if both are zero, 1 if only one is
+     */
+    public static double cosineDistance(float[] a, float[] b) {
+        checkLengths(a, b);
+        WeightKernels kernels = get();
+        double norms = Math.sqrt(kernels.squaredNorm(a, 0, a.length)) * Math.sqrt(kernels.squaredNorm(b, 0, b.length));
+        if (norms == 0) return kernels.squaredNorm(a, 0, a.length) == kernels.squaredNorm(b, 0, b.length) ? 0 : 1;
+        return 1 - kernels.dot(a, 0, b, 0, a.length) / norms;
+    }
+
+    /**
+     * @return The largest change of any single weight between a and b
+     */
+    public static float maxAbsDelta(float[] a, float[] b) {
+        checkLengths(a, b);
+        return get().maxAbsDelta(a, 0, b, 0, a.length);
+    }
+
+    private static void checkLengths(float[] a, float[] b) {
+        if (a.length != b.length) throw new IllegalArgumentException("Arrays of " + a.length + " and " + b.length);
+    }
+
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,90 @@
+package node.blockchain.ml_verification;
+
+import java.util.Random;
+
+/**
+ * Times the weight kernels on arrays the size of small to large models: the plain loop weight analysis
+ * used before, with one double running sum, against ScalarWeightKernels and, when the JVM runs with
+ * --add-modules jdk.incubator.vector and the vector profile built it, VectorWeightKernels. Also checks
+ * every implementation returns the same bits.
+ * <p>
+ * Usage: WeightKernelsBenchmark [parameter counts, comma separated]. The default 1M, 10M and 100M
+ * needs a heap of about 1GB.
+ */
+public class WeightKernelsBenchmark {
+    public static void main(String[] args) {
+        String[] sizes = (args.length > 0 ? args[0] : "1000000,10000000,100000000").split(",");
+        WeightKernels scalar = new ScalarWeightKernels();
+        WeightKernels selected = WeightKernels.get();
+        boolean hasVector = selected.getClass() != ScalarWeightKernels.class;
+        System.out.println("Selected kernels: " + selected.getName());
+
+        for (String sizeString : sizes) {
+            int size = Integer.parseInt(sizeString.trim());
+            float[] a = new float[size];
+            float[] b = new float[size];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                a[i] = (float) random.nextGaussian();
+                b[i] = a[i] + (float) (random.nextGaussian() * 0.01);
+            }
+            int iterations = Math.max(3, 200_000_000 / size);
+
+            System.out.printf("%n%,d parameters%n%-40s %10s %10s%n", size, "operation", "ms/op", "GB/s");
+            for (int round = 0; round < 2; round++) {
+                /* The first round only warms up the JIT */
+                boolean print = round == 1;
+                double sink = 0;
+
+                long start = System.nanoTime();
+                for (int n = 0; n < iterations; n++) sink += plainSquaredDistance(a, b);
+                report(print, "squared distance, plain loop", start, iterations, size);
+
+                for (WeightKernels kernels : new WeightKernels[]{scalar, selected}) {
+                    if (kernels == selected && !hasVector) break;
+                    String name = kernels.getName();
+
+                    start = System.nanoTime();
+                    for (int n = 0; n < iterations; n++) sink += kernels.squaredDistance(a, 0, b, 0, size);
+                    report(print, "squared distance, " + name, start, iterations, size);
+
+                    start = System.nanoTime();
+                    for (int n = 0; n < iterations; n++) sink += kernels.dot(a, 0, b, 0, size);
+                    report(print, "dot, " + name, start, iterations, size);
+
+                    start = System.nanoTime();
+                    for (int n = 0; n < iterations; n++) sink += kernels.maxAbsDelta(a, 0, b, 0, size);
+                    report(print, "max abs delta, " + name, start, iterations, size);
+                }
+                if (sink == 42) System.out.println();
+            }
+
+            if (hasVector) {
+                boolean same = Double.doubleToLongBits(scalar.squaredDistance(a, 0, b, 0, size))
+                        == Double.doubleToLongBits(selected.squaredDistance(a, 0, b, 0, size))
+                        && Double.doubleToLongBits(scalar.dot(a, 0, b, 0, size))
+                        == Double.doubleToLongBits(selected.dot(a, 0, b, 0, size))
+                        && scalar.maxAbsDelta(a, 0, b, 0, size) == selected.maxAbsDelta(a, 0, b, 0, size);
+                System.out.println(same ? "Implementations agree bit for bit" : "IMPLEMENTATIONS DISAGREE");
+            }
+        }
+    }
+
+    /* The loop the snapshot distances used before the kernels */
+    private static double plainSquaredDistance(float[] a, float[] b) {
+        double squares = 0;
+        for (int i = 0; i < a.length; i++) {
+            double difference = a[i] - b[i];
+            squares += difference * difference;
+        }
+        return squares;
+    }
+
+    private static void report(boolean print, String operation, long start, int iterations, int size) {
+        if (!print) return;
+        double millis = (System.nanoTime() - start) / 1e6 / iterations;
+        /* Two float arrays read per operation */
+        double gigabytes = 8.0 * size / 1e9;
+        System.out.printf("%-40s %10.3f %10.2f%n", operation, millis, gigabytes / (millis / 1e3));
+    }
+}
@@ -0,0 +1,108 @@
+package node.blockchain.ml_verification;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The weights of one model snapshot, as exported by {@code weight_analysis.py --export}. Each snapshot of
+ * a model is one file named after its training interval ("0.tensors", "1.tensors", ...), laid out
+ * big-endian as
+ * <pre>
+ *     int magic | int version | int tensor count | (int rank | int[rank] shape | float32[size] values)*
+ * </pre>
+ * with the tensors in the order Keras' get_weights returns them and each tensor's values in row-major order.
+ */
+public class WeightSnapshot {
+    public static final String SUFFIX = ".tensors";
+    private static final int MAGIC = 0x42435754;
+    private static final int VERSION = 1;
+
+    private final int[][] shapes;
+    private final float[][] tensors;
+
+    /**
+     * @param shapes Each tensor's dimensions
+     * @param tensors Each tensor's values, row-major
+     */
+    public WeightSnapshot(int[][] shapes, float[][] tensors) {
+        if (shapes.length != tensors.length) throw new IllegalArgumentException("Shapes and tensors differ in count");
+        for (int t = 0; t < shapes.length; t++) {
+            if (size(shapes[t]) != tensors[t].length) {
+                throw new IllegalArgumentException("Tensor " + t + " does not fill its shape");
+            }
+        }
+        this.shapes = shapes;
+        this.tensors = tensors;
+    }
+
+    public static WeightSnapshot read(Path file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (in.getInt() != MAGIC) throw new IOException(file + " is not a weight snapshot");
+            int version = in.getInt();
+            if (version != VERSION) throw new IOException(file + " has unknown version " + version);
+
+            int count = in.getInt();
+            int[][] shapes = new int[count][];
+            float[][] tensors = new float[count][];
+            for (int t = 0; t < count; t++) {
+                int[] shape = new int[in.getInt()];
+                for (int d = 0; d < shape.length; d++) shape[d] = in.getInt();
+                float[] values = new float[size(shape)];
+                in.asFloatBuffer().get(values);
+                in.position(in.position() + 4 * values.length);
+                shapes[t] = shape;
+                tensors[t] = values;
+            }
+            return new WeightSnapshot(shapes, tensors);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is truncated or malformed", e);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tensors.length);
+            for (int t = 0; t < tensors.length; t++) {
+                out.writeInt(shapes[t].length);
+                for (int dimension : shapes[t]) out.writeInt(dimension);
+                for (float value : tensors[t]) out.writeFloat(value);
+            }
+        }
+    }
+
+    /**
+     * How far training moved the weights between two snapshots, as compare_weights in weight_analysis.py
+     * measures it: the sum over tensors of the L2 norm of their difference
+     * @throws IllegalArgumentException If the snapshots are not of the same model
+     */
+    public double distance(WeightSnapshot other) {
+        if (tensors.length != other.tensors.length) {
+            throw new IllegalArgumentException("Snapshots have " + tensors.length + " and "
+                    + other.tensors.length + " tensors");
+        }
+        WeightKernels kernels = WeightKernels.get();
+        double sum = 0;
+        for (int t = 0; t < tensors.length; t++) {
+            float[] a = tensors[t];
+            float[] b = other.tensors[t];
+            if (a.length != b.length) throw new IllegalArgumentException("Tensor " + t + " differs in size");
+            sum += Math.sqrt(kernels.squaredDistance(a, 0, b, 0, a.length));
+        }
+        return sum;
+    }
+
+    public int getTensorCount() { return tensors.length; }
+    public int[] getShape(int tensor) { return shapes[tensor]; }
+    public float[] getTensor(int tensor) { return tensors[tensor]; }
+
+    private static int size(int[] shape) {
+        int size = 1;
+        for (int dimension : shape) size = Math.multiplyExact(size, dimension);
+        return size;
+    }
+}
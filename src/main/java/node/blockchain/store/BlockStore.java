@@ -0,0 +1,428 @@
+package node.blockchain.store;
+
+import node.blockchain.Block;
+import node.communication.QuorumCertificate;
+import node.communication.messaging.codec.CodecRegistry;
+import node.communication.messaging.codec.WireReader;
+import node.communication.messaging.codec.WireWriter;
+import node.communication.utils.Hash;
+import node.communication.utils.Hashing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A node's chain on disk. Blocks are appended to segment files, each record laid out as
+ * <pre>
+ *     int length | int crc32 | int block id | 32 byte block hash | block | quorum certificate
+ * </pre>
+ * with the block and certificate in the binary wire encoding, where length counts everything after the
+ * checksum and the checksum covers the same bytes. The certificate lets the node prove each block to peers
+ * catching up. Blocks are indexed by id and by hash in memory and read back through memory-mapped
+ * segments. The last block is always kept decoded, so what it memoizes survives, and a few others read by
+ * id are kept in an LRU. Iterating over the chain does not go through the LRU.
+ * <p>
+ * Opening a store replays its segments. A record cut short or failing its checksum can only come from a
+ * crash mid-append, so the store is truncated to the last whole record before it.
+ * <p>
+ * Old blocks can be pruned a whole segment at a time. Segment files are named by their first block id,
+ * so a pruned store still knows where its chain starts.
+ */
+public class BlockStore implements Iterable<Block>, Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    private static final String SEGMENT_SUFFIX = ".blocks";
+    private static final int HEADER_BYTES = 4 + 4 + 4 + Hashing.SHA_LENGTH;
+    /* Blocks besides the last kept decoded */
+    private static final int RECENT_BLOCKS = 16;
+    /* Syncs what FsyncPolicy.INTERVAL left unsynced once no further append comes to do it */
+    private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-store-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final long segmentBytes;
+    private final CodecRegistry registry;
+
+    private final ArrayList<Segment> segments;
+    /* Locations of the retained blocks, the first being block firstId */
+    private final ArrayList<Location> byId;
+    private int firstId;
+    private HashMap<String, Integer> byHash;
+    private final LinkedHashMap<Integer, Block> recent;
+    /* Decoded once and kept outside recent, since the quorum logic keeps reading it */
+    private Block last;
+    private long lastSync;
+    private boolean unsynced;
+    private boolean syncScheduled;
+    private boolean closed;
+
+    /**
+     * Opens the store in a directory, creating it if needed and recovering what a crash left behind
+     * @param fsyncIntervalMillis Most time between syncs under FsyncPolicy.INTERVAL
+     * @param segmentBytes Size at which a new segment file is started
+     */
+    public BlockStore(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long segmentBytes)
+            throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.segmentBytes = segmentBytes;
+        this.registry = CodecRegistry.standard();
+        this.segments = new ArrayList<>();
+        this.byId = new ArrayList<>();
+        this.byHash = new HashMap<>();
+        this.recent = new LinkedHashMap<Integer, Block>(RECENT_BLOCKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > RECENT_BLOCKS;
+            }
+        };
+
+        Files.createDirectories(directory);
+        recover();
+        lastSync = System.currentTimeMillis();
+    }
+
+    public BlockStore(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this(directory, fsyncPolicy, fsyncIntervalMillis, DEFAULT_SEGMENT_BYTES);
+    }
+
+    private void recover() throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        Collections.sort(files);
+
+        boolean torn = false;
+        for (Path file : files) {
+            if (torn) {
+                /* Everything after a torn record was written after it, so cannot be trusted either */
+                System.out.println("BlockStore: dropping " + file + " after a torn record");
+                Files.delete(file);
+                continue;
+            }
+            Segment segment = new Segment(file, firstIdOf(file));
+            if (segments.isEmpty()) {
+                firstId = segment.firstId;
+            } else if (segment.firstId != size()) {
+                System.out.println("BlockStore: " + file + " does not follow block " + (size() - 1));
+                segment.channel.close();
+                Files.delete(file);
+                torn = true;
+                continue;
+            }
+            segments.add(segment);
+            long valid = scan(segment);
+            if (valid < segment.size) {
+                System.out.println("BlockStore: truncating " + file + " from " + segment.size + " to " + valid);
+                segment.channel.truncate(valid);
+                segment.channel.force(true);
+                segment.size = valid;
+                segment.map = null;
+                torn = true;
+            }
+        }
+    }
+
+    /**
+     * Indexes a segment's records
+     * @return Bytes of whole, intact records at the start of the segment
+     */
+    private long scan(Segment segment) throws IOException {
+        ByteBuffer map = segment.map(segment.size);
+        long position = 0;
+        byte[] hash = new byte[Hashing.SHA_LENGTH];
+        while (position + HEADER_BYTES <= segment.size) {
+            map.position((int) position);
+            int length = map.getInt();
+            int checksum = map.getInt();
+            if (length < HEADER_BYTES - 8 || position + 8 + length > segment.size) break;
+
+            CRC32 crc = new CRC32();
+            ByteBuffer body = map.slice();
+            body.limit(length);
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) break;
+
+            int blockId = map.getInt();
+            if (blockId != size()) break;
+            map.get(hash);
+            String blockHash = Hashing.toHexString(hash);
+            byId.add(new Location(segment, position + HEADER_BYTES, length - 4 - Hashing.SHA_LENGTH, blockHash));
+            byHash.put(blockHash, blockId);
+            position += 8 + length;
+        }
+        return position;
+    }
+
+    /**
+     * Appends the next block, syncing it to disk as the policy says
+     * @param certificate The quorum's signatures over the block, null for the genesis block
+     * @throws IllegalArgumentException If the block does not follow the last one stored
+     */
+    public synchronized void add(Block block, QuorumCertificate certificate) throws IOException {
+        if (block.getBlockId() != size()) {
+            throw new IllegalArgumentException("Block " + block.getBlockId() + " does not follow " + (size() - 1));
+        }
+        WireWriter out = new WireWriter(registry);
+        out.writeValue(block);
+        out.writeValue(certificate);
+        byte[] payload = out.toByteArray();
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(HEADER_BYTES - 8 + payload.length);
+        record.putInt(0);
+        record.putInt(block.getBlockId());
+        byte[] hash = new byte[Hashing.SHA_LENGTH];
+        Hash.fromHex(block.getHash()).copyTo(hash, 0);
+        record.put(hash);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || (segment.size > 0 && segment.size + record.remaining() > segmentBytes)) {
+            if (segment != null) segment.channel.force(true);
+            segment = new Segment(directory.resolve(String.format("%012d", size()) + SEGMENT_SUFFIX), size());
+            if (segments.isEmpty()) firstId = size();
+            segments.add(segment);
+        }
+        long position = segment.size;
+        while (record.hasRemaining()) segment.channel.write(record, position + record.position());
+        segment.size += record.capacity();
+
+        long now = System.currentTimeMillis();
+        if (fsyncPolicy == FsyncPolicy.ALWAYS
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastSync >= fsyncIntervalMillis)) {
+            segment.channel.force(false);
+            lastSync = now;
+            unsynced = false;
+        } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            unsynced = true;
+            if (!syncScheduled) {
+                syncScheduled = true;
+                SYNCER.schedule(this::scheduledSync, fsyncIntervalMillis - (now - lastSync), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        byId.add(new Location(segment, position + HEADER_BYTES, payload.length, block.getHash()));
+        byHash.put(block.getHash(), block.getBlockId());
+        if (last != null) recent.put(last.getBlockId(), last);
+        last = block;
+    }
+
+    /**
+     * @return The block with the given id, or null if there is none or it was pruned
+     */
+    public synchronized Block get(int blockId) {
+        return get(blockId, true);
+    }
+
+    /**
+     * @param remember Whether to keep the block decoded in recent if it was not already
+     */
+    private synchronized Block get(int blockId, boolean remember) {
+        if (blockId < firstId || blockId >= size()) return null;
+        boolean isLast = blockId == size() - 1;
+        if (isLast && last != null) return last;
+        Block block = recent.get(blockId);
+        if (block != null) return block;
+
+        try {
+            block = read(blockId).readValue(Block.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (isLast) last = block;
+        else if (remember) recent.put(blockId, block);
+        return block;
+    }
+
+    /**
+     * @return The certificate stored with a block, or null for the genesis block or a block not stored
+     */
+    public synchronized QuorumCertificate getCertificate(int blockId) {
+        if (blockId < firstId || blockId >= size()) return null;
+        try {
+            WireReader in = read(blockId);
+            in.readValue();
+            return in.readValue(QuorumCertificate.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private WireReader read(int blockId) throws IOException {
+        Location location = byId.get(blockId - firstId);
+        byte[] payload = new byte[location.length];
+        ByteBuffer map = location.segment.map(location.offset + location.length);
+        map.position((int) location.offset);
+        map.get(payload);
+        return new WireReader(registry, payload);
+    }
+
+    /**
+     * @return The block with the given hash, or null if there is none
+     */
+    public synchronized Block get(String hash) {
+        Integer blockId = byHash.get(hash);
+        return blockId == null ? null : get(blockId);
+    }
+
+    public synchronized Block getLast() {
+        return byId.isEmpty() ? null : get(size() - 1);
+    }
+
+    /**
+     * @return Number of blocks in the chain, pruned ones included, which is also the next block's id
+     */
+    public synchronized int size() {
+        return firstId + byId.size();
+    }
+
+    /**
+     * @return Id of the oldest block still stored
+     */
+    public synchronized int getFirstId() {
+        return firstId;
+    }
+
+    /**
+     * Deletes the segments holding only blocks older than the given one. The segment being appended to
+     * is always kept, so fewer blocks than asked may go
+     * @return Id of the oldest block still stored
+     */
+    public synchronized int prune(int beforeId) throws IOException {
+        boolean pruned = false;
+        while (segments.size() > 1 && segments.get(1).firstId <= beforeId) {
+            Segment oldest = segments.remove(0);
+            int end = segments.get(0).firstId;
+            for (Location location : byId.subList(0, end - firstId)) byHash.remove(location.hash);
+            byId.subList(0, end - firstId).clear();
+            for (int blockId = firstId; blockId < end; blockId++) recent.remove(blockId);
+            firstId = end;
+            oldest.channel.close();
+            Files.delete(oldest.file);
+            pruned = true;
+        }
+        if (pruned) {
+            /* Neither shrinks its table by itself as entries are removed */
+            byId.trimToSize();
+            byHash = new HashMap<>(byHash);
+        }
+        return firstId;
+    }
+
+    /**
+     * Forces everything appended so far to disk
+     */
+    public synchronized void sync() throws IOException {
+        if (!segments.isEmpty()) segments.get(segments.size() - 1).channel.force(false);
+        lastSync = System.currentTimeMillis();
+        unsynced = false;
+    }
+
+    private synchronized void scheduledSync() {
+        syncScheduled = false;
+        if (closed || !unsynced) return;
+        try {
+            sync();
+        } catch (IOException e) {
+            System.out.println("BlockStore: could not sync " + directory + ". " + e);
+        }
+    }
+
+    /**
+     * Iterates over the blocks stored when called, oldest retained first. Blocks read on the way are not
+     * kept, so walking the chain does not push recent blocks out
+     */
+    @Override
+    public Iterator<Block> iterator() {
+        int end = size();
+        int start = getFirstId();
+        return new Iterator<Block>() {
+            private int next = start;
+
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            public Block next() {
+                if (next >= end) throw new NoSuchElementException();
+                return get(next++, false);
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        sync();
+        closed = true;
+        for (Segment segment : segments) segment.channel.close();
+    }
+
+    private static int firstIdOf(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a segment file: " + file);
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final int firstId;
+        private final FileChannel channel;
+        private long size;
+        private MappedByteBuffer map;
+
+        Segment(Path file, int firstId) throws IOException {
+            this.file = file;
+            this.firstId = firstId;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        /* The segment still being appended to outgrows its mapping, so it is remapped when read past the end */
+        ByteBuffer map(long through) throws IOException {
+            if (map == null || map.capacity() < through) map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return map.duplicate();
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final String hash;
+
+        Location(Segment segment, long offset, int length, String hash) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package node.blockchain.store;
+
+/**
+ * When a block store forces appended blocks to disk
+ */
+public enum FsyncPolicy {
+    /* Before every append returns. A block announced to peers survives a power loss */
+    ALWAYS,
+    /* At most once per interval, and one interval after an append left unsynced. A crash loses at most the
+     * last interval's blocks */
+    INTERVAL,
+    /* Whenever the operating system gets to it */
+    NEVER
+}
@@ -0,0 +1,49 @@
+package node.communication;
+
+import java.util.*;
+
+/**
+ * The nodes chosen to build the block after a given block, in the order they were drawn
+ */
+public class Quorum implements Iterable<Address> {
+    private final List<Address> members;
+    private final HashMap<Address, Integer> positions;
+
+    public Quorum(List<Address> members) {
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        this.positions = new HashMap<>();
+        for (int i = 0; i < members.size(); i++) positions.putIfAbsent(members.get(i), i);
+    }
+
+    /**
+     * @return Members in draw order. Unmodifiable, copy it before shuffling
+     */
+    public List<Address> getMembers() {
+        return members;
+    }
+
+    public boolean contains(Address address) {
+        return positions.containsKey(address);
+    }
+
+    /**
+     * @return Position of the member in draw order, or -1 if the address is not a member
+     */
+    public int indexOf(Address address) {
+        return positions.getOrDefault(address, -1);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public Iterator<Address> iterator() {
+        return members.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return members.toString();
+    }
+}
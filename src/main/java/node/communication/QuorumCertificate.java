@@ -0,0 +1,78 @@
+package node.communication;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Proof that a quorum signed a block: the block hash once, a bitmap of which quorum members signed it,
+ * and their signatures in member order. Signers are named by position in the quorum every node derives
+ * from the previous block, so neither addresses nor per-signature copies of the hash are sent.
+ */
+public class QuorumCertificate implements Serializable {
+    private final String blockHash;
+    private final byte[] signers;
+    private final ArrayList<byte[]> signatures;
+
+    /**
+     * @param signers Bitmap of quorum positions, as BitSet.toByteArray writes it
+     * @param signatures Signatures of the set positions, lowest position first
+     */
+    public QuorumCertificate(String blockHash, byte[] signers, ArrayList<byte[]> signatures) {
+        if (BitSet.valueOf(signers).cardinality() != signatures.size()) {
+            throw new IllegalArgumentException("Signer bitmap does not match the signatures");
+        }
+        this.blockHash = blockHash;
+        this.signers = signers;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Collects the members' signatures over a block hash. Signatures over other hashes, by non-members or
+     * repeating a member are left out.
+     */
+    public static QuorumCertificate of(String blockHash, Quorum quorum, Collection<BlockSignature> blockSignatures) {
+        byte[][] byPosition = new byte[quorum.size()][];
+        BitSet bitmap = new BitSet(quorum.size());
+        for (BlockSignature blockSignature : blockSignatures) {
+            int position = quorum.indexOf(blockSignature.getAddress());
+            if (position < 0 || bitmap.get(position) || !blockHash.equals(blockSignature.getHash())) continue;
+            bitmap.set(position);
+            byPosition[position] = blockSignature.getSignature();
+        }
+
+        ArrayList<byte[]> signatures = new ArrayList<>();
+        for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) signatures.add(byPosition[i]);
+        return new QuorumCertificate(blockHash, bitmap.toByteArray(), signatures);
+    }
+
+    /**
+     * Expands the certificate against the quorum it was made for
+     * @return One signature per signer, or null if a signer position is outside the quorum
+     */
+    public ArrayList<BlockSignature> getBlockSignatures(Quorum quorum) {
+        BitSet bitmap = BitSet.valueOf(signers);
+        if (bitmap.length() > quorum.size()) return null;
+
+        ArrayList<BlockSignature> blockSignatures = new ArrayList<>(signatures.size());
+        int next = 0;
+        for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+            blockSignatures.add(new BlockSignature(signatures.get(next++), blockHash, quorum.getMembers().get(i)));
+        }
+        return blockSignatures;
+    }
+
+    public String getBlockHash() { return blockHash; }
+    public byte[] getSigners() { return signers; }
+    public ArrayList<byte[]> getSignatures() { return signatures; }
+
+    public int getSignerCount() {
+        return signatures.size();
+    }
+
+    @Override
+    public String toString() {
+        return blockHash.substring(0, 4) + ", signers " + BitSet.valueOf(signers);
+    }
+}
@@ -2,73 +2,72 @@ package node.communication;
 
 import node.Node;
 import node.blockchain.Block;
-import node.blockchain.BlockSkeleton;
+import node.blockchain.CompactBlockSkeleton;
 import node.blockchain.Transaction;
 import node.communication.messaging.Message;
+import node.communication.messaging.MessageExchange;
+import node.communication.messaging.PeerConnection;
+import node.communication.reconciliation.InvertibleBloomFilter;
 
-import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
- * Deterministic thread which implements the node's protocol
+ * Deterministic handler which implements the node's protocol. The transport calls it on a worker thread
+ * for every request the node receives.
  */
-public class ServerConnection extends Thread {
-    private final Socket client;
+public class ServerConnection implements PeerConnection.RequestHandler {
     private final Node node;
 
-    public ServerConnection(Socket client, Node node) throws SocketException {
-        this.client = client;
+    public ServerConnection(Node node) {
         this.node = node;
-        setPriority(NORM_PRIORITY - 1);
     }
 
-    public void run() {
+    public void handle(Message incomingMessage, MessageExchange exchange) {
         try {
-            OutputStream out = client.getOutputStream();
-            InputStream in = client.getInputStream();
-            ObjectOutputStream oout = new ObjectOutputStream(out);
-            ObjectInputStream oin = new ObjectInputStream(in);
-            Message incomingMessage = (Message) oin.readObject();
-            handleRequest(incomingMessage, oout, oin);
-            // client.close();
+            handleRequest(incomingMessage, exchange);
         } catch (IOException e) {
-            System.out.println(node.getAddress().getPort() + ": IO Error. Port exhausted likely. " + e);
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+            System.out.println(node.getAddress().getPort() + ": IO Error. " + e);
         }
     }
 
-    public void handleRequest(Message incomingMessage, ObjectOutputStream oout, ObjectInputStream oin) throws IOException {
+    public void handleRequest(Message incomingMessage, MessageExchange exchange) throws IOException {
+        boolean handedOff = false;
+        try {
+            handedOff = respond(incomingMessage, exchange);
+        } finally {
+            if (!handedOff) exchange.close();
+        }
+    }
+
+    /**
+     * @return True if the node took ownership of the exchange and will close it itself
+     */
+    private boolean respond(Message incomingMessage, MessageExchange exchange) throws IOException {
         Message outgoingMessage;
         switch(incomingMessage.getRequest()){
             case REQUEST_CONNECTION:
                 Address address = (Address) incomingMessage.getMetadata();
                 if (node.eligibleConnection(address, true)) {
                     outgoingMessage = new Message(Message.Request.ACCEPT_CONNECTION, node.getAddress());
-                    oout.writeObject(outgoingMessage);
-                    oout.flush();
-                    return;
+                    exchange.send(outgoingMessage);
+                    return false;
                 }
                 outgoingMessage = new Message(Message.Request.REJECT_CONNECTION, node.getAddress());
-                oout.writeObject(outgoingMessage);
-                oout.flush();
+                exchange.send(outgoingMessage);
                 break;
             case QUERY_PEERS:
                 outgoingMessage = new Message(node.getLocalPeers());
-                oout.writeObject(outgoingMessage);
-                oout.flush();
+                exchange.send(outgoingMessage);
                 break;
             case ADD_BLOCK:
                 Block proposedBlock = (Block) incomingMessage.getMetadata();
                 node.addBlock(proposedBlock);
             case PING:
                 outgoingMessage = new Message(Message.Request.PING);
-                oout.writeObject(outgoingMessage);
-                oout.flush();
+                exchange.send(outgoingMessage);
                 break;
             case ADD_TRANSACTION:
                 Transaction transaction = (Transaction) incomingMessage.getMetadata();
@@ -76,19 +75,43 @@ public class ServerConnection extends Thread {
                 break;
             case RECEIVE_MEMPOOL:
                 Set<String> memPoolHashes = (HashSet<String>) incomingMessage.getMetadata();
-                node.receiveMemPool(memPoolHashes, oout, oin);
-                break;
+                node.receiveMemPool(memPoolHashes, exchange);
+                return true;
+            case RECEIVE_MEMPOOL_SKETCH:
+                InvertibleBloomFilter sketch = (InvertibleBloomFilter) incomingMessage.getMetadata();
+                node.receiveMemPoolSketch(sketch, exchange);
+                return true;
             case QUORUM_READY:
-                node.receiveQuorumReady(oout, oin);
-                break;
+                node.receiveQuorumReady(exchange, (Integer) incomingMessage.getMetadata());
+                return true;
             case RECEIVE_SIGNATURE:
                 BlockSignature blockSignature = (BlockSignature) incomingMessage.getMetadata();
                 node.receiveQuorumSignature(blockSignature);
                 break;
             case RECEIVE_SKELETON:
-                BlockSkeleton blockSkeleton = (BlockSkeleton) incomingMessage.getMetadata();
+                CompactBlockSkeleton blockSkeleton = (CompactBlockSkeleton) incomingMessage.getMetadata();
                 node.receiveSkeleton(blockSkeleton);
                 break;
+            case REQUEST_BLOCK_TRANSACTIONS:
+                Object[] wanted = (Object[]) incomingMessage.getMetadata();
+                if (!(wanted[1] instanceof ArrayList)) {
+                    exchange.send(new Message(new ArrayList<>()));
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                ArrayList<Long> shortIds = (ArrayList<Long>) wanted[1];
+                exchange.send(new Message(node.getBlockTransactions((int) wanted[0], shortIds)));
+                break;
+            case REQUEST_BLOCKS:
+                Object[] range = (Object[]) incomingMessage.getMetadata();
+                exchange.send(new Message(node.getBlocks((int) range[0], (int) range[1])));
+                break;
+            case REQUEST_CHAIN_STATUS:
+                exchange.send(new Message(node.getChainStatus()));
+                break;
+            case REQUEST_CHAIN_DUMP:
+                exchange.send(new Message(node.getChainDump()));
+                break;
             case ALERT_WALLET:
                 Object[] data = (Object[]) incomingMessage.getMetadata();
                 node.alertWallet((String) data[0], (Address) data[1]);
@@ -98,5 +121,6 @@ public class ServerConnection extends Thread {
                 node.receiveIntervalValidation((boolean) validationPair[0], (int) validationPair[1]);
                 break;
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package node.communication.messaging;
+
+import node.communication.Address;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one long-lived PeerConnection per remote node so that repeated messages to the same
+ * node reuse a socket instead of paying a TCP handshake each time.
+ */
+public class ConnectionPool {
+    private final NioTransport transport;
+    private final ConcurrentHashMap<Address, PeerConnection> connections;
+
+    public ConnectionPool(NioTransport transport){
+        this.transport = transport;
+        connections = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the open connection to a node, connecting first if there is none
+     * @param address Node to connect to
+     * @return An open connection
+     */
+    public PeerConnection get(Address address) throws IOException {
+        PeerConnection connection = connections.get(address);
+        if (connection != null && !connection.isClosed()) return connection;
+
+        try {
+            return connections.compute(address, (key, existing) -> {
+                if (existing != null && !existing.isClosed()) return existing;
+                try {
+                    return transport.connect(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Closes and forgets a connection, typically after it failed
+     * @param address Node the connection was to
+     * @param connection The connection to discard
+     */
+    public void discard(Address address, PeerConnection connection) {
+        connections.remove(address, connection);
+        connection.close();
+    }
+}
@@ -39,7 +39,14 @@ public class Message implements Serializable {
         RECEIVE_SIGNATURE,
         RECONCILE_BLOCK,
         ALERT_WALLET,
-        RECEIVE_INTERVAL_VALIDATION
+        RECEIVE_INTERVAL_VALIDATION,
+        RECEIVE_MEMPOOL_SKETCH,
+        REQUEST_MEMPOOL_SKETCH,
+        REQUEST_MEMPOOL_KEYS,
+        REQUEST_BLOCK_TRANSACTIONS,
+        REQUEST_BLOCKS,
+        REQUEST_CHAIN_STATUS,
+        REQUEST_CHAIN_DUMP
     }
 
     public Request getRequest(){
@@ -0,0 +1,26 @@
+package node.communication.messaging;
+
+import java.io.IOException;
+
+/**
+ * One request/reply conversation between two nodes. The node that opened the exchange and the node
+ * handling it may pass any number of messages back and forth before either side closes it.
+ */
+public interface MessageExchange {
+    /**
+     * Sends a message to the other side of this exchange
+     * @param message Message to send
+     */
+    void send(Message message) throws IOException;
+
+    /**
+     * Blocks until the other side of this exchange sends a message
+     * @return The message received
+     */
+    Message receive() throws IOException;
+
+    /**
+     * Ends the exchange. Further messages from the other side are discarded
+     */
+    void close();
+}
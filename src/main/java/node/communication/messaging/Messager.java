@@ -4,60 +4,127 @@ import java.io.*;
 import java.net.Socket;
 
 import node.communication.Address;
+import node.communication.messaging.codec.WireFormat;
 
 public class Messager{
-    
+    private static final int DEFAULT_IO_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    /* Handlers no longer park threads waiting on consensus state, so a few per processor is plenty */
+    public static final int DEFAULT_WORKER_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+    private static final WireFormat DEFAULT_WIRE_FORMAT = WireFormat.JAVA;
+
+    /* Shared by every node in this JVM, so nodes talking to the same peer share its connection */
+    private static NioTransport transport;
+    private static ConnectionPool pool;
+
+    /**
+     * Sizes the transport shared by this JVM. Must be called before any node starts
+     * @param ioThreads     Selector threads
+     * @param workerThreads Requests handled at once
+     * @param wireFormat    Format of the messages this JVM sends
+     */
+    public static synchronized void configureTransport(int ioThreads, int workerThreads, WireFormat wireFormat) {
+        if (transport != null) throw new IllegalStateException("Transport already started");
+        transport = new NioTransport(ioThreads, workerThreads, wireFormat);
+        pool = new ConnectionPool(transport);
+    }
+
+    public static synchronized NioTransport getTransport() {
+        if (transport == null) configureTransport(DEFAULT_IO_THREADS, DEFAULT_WORKER_THREADS, DEFAULT_WIRE_FORMAT);
+        return transport;
+    }
+
+    private static ConnectionPool getPool() {
+        getTransport();
+        return pool;
+    }
+
     public static void sendOneWayMessage(Address address, Message message, Address myAddress) {
+        ConnectionPool pool = getPool();
+        PeerConnection connection = null;
         try {
-            Socket s = new Socket(address.getHost(), address.getPort());
-            InputStream in = s.getInputStream();
-            ObjectInputStream oin = new ObjectInputStream(in);
-            OutputStream out = s.getOutputStream();
-            ObjectOutputStream oout = new ObjectOutputStream(out);
-            oout.writeObject(message);
-            oout.flush();
-            s.close();
+            connection = pool.get(address);
+            connection.sendOneWay(message);
         } catch (IOException e) {
+            /* The pooled connection may have gone stale, so retry once over a fresh one, but only if
+             * the peer cannot have seen the message. A frame cut off mid-write is not resent, since
+             * handlers of one-way messages such as votes and transactions are not all idempotent */
+            if (connection != null) {
+                pool.discard(address, connection);
+                if (e instanceof PeerConnection.NotSentException) {
+                    try {
+                        pool.get(address).sendOneWay(message);
+                        return;
+                    } catch (IOException e1) {}
+                }
+            }
             System.out.println("Node " + myAddress.getPort() + ": sendOneWayMessage: Received IO Exception from node " + address.getPort());
         }
     }
 
     public static Message sendTwoWayMessage(Address address, Message message, Address myAddress) {
+        MessageExchange exchange = openExchange(address, message);
+        if (exchange == null) {
+            System.out.println("Node " + myAddress.getPort() + ": sendTwoWayMessage: Received IO Exception from node " + address.getPort());
+            return null;
+        }
         try {
-            Socket s = new Socket(address.getHost(), address.getPort());
-            InputStream in = s.getInputStream();
-            ObjectInputStream oin = new ObjectInputStream(in);
-            OutputStream out = s.getOutputStream();
-            ObjectOutputStream oout = new ObjectOutputStream(out);
-            oout.writeObject(message);
-            oout.flush();
-            Message messageReceived = (Message) oin.readObject();
-            s.close();
-            return messageReceived;
+            return exchange.receive();
         } catch (IOException e) {
             System.out.println("Node " + myAddress.getPort() + ": sendTwoWayMessage: Received IO Exception from node " + address.getPort());
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+        } finally {
+            exchange.close();
         }
         return null;
     }
 
     public static MessagerPack sendInterestingMessage(Address address, Message message, Address myAddress) {
+        MessageExchange exchange = openExchange(address, message);
+        if (exchange == null) {
+            System.out.println("Node " + myAddress.getPort() + ": sendTwoWayMessage: Received IO Exception from node " + address.getPort());
+            return null;
+        }
+        try {
+            Message messageReceived = exchange.receive();
+            return new MessagerPack(exchange, messageReceived);
+        } catch (IOException e) {
+            exchange.close();
+            System.out.println("Node " + myAddress.getPort() + ": sendTwoWayMessage: Received IO Exception from node " + address.getPort());
+        }
+        return null;
+    }
+
+    /**
+     * Sends a message over its own socket as a bare object stream. Wallets and clients read exactly one
+     * message per accepted socket, so this is how nodes reach them.
+     */
+    public static void sendStandaloneMessage(Address address, Message message, Address myAddress) {
         try {
             Socket s = new Socket(address.getHost(), address.getPort());
-            InputStream in = s.getInputStream();
-            ObjectInputStream oin = new ObjectInputStream(in);
             OutputStream out = s.getOutputStream();
             ObjectOutputStream oout = new ObjectOutputStream(out);
             oout.writeObject(message);
             oout.flush();
-            Message messageReceived = (Message) oin.readObject();
-            return new MessagerPack(oout, oin, s, messageReceived);
+            s.close();
         } catch (IOException e) {
-            System.out.println("Node " + myAddress.getPort() + ": sendTwoWayMessage: Received IO Exception from node " + address.getPort());
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+            System.out.println("Node " + myAddress.getPort() + ": sendStandaloneMessage: Received IO Exception from " + address);
+        }
+    }
+
+    private static MessageExchange openExchange(Address address, Message message) {
+        ConnectionPool pool = getPool();
+        PeerConnection connection = null;
+        try {
+            connection = pool.get(address);
+            return connection.open(message);
+        } catch (IOException e) {
+            if (connection == null) return null;
+            pool.discard(address, connection);
+            if (!(e instanceof PeerConnection.NotSentException)) return null;
+            try {
+                return pool.get(address).open(message);
+            } catch (IOException e1) {
+                return null;
+            }
         }
-        return null;
     }
-}
\ No newline at end of file
+}
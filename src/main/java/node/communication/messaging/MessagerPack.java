@@ -1,35 +1,19 @@
 package node.communication.messaging;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-
 public class MessagerPack {
-    private ObjectOutputStream oout;
-    private ObjectInputStream oin;
+    private MessageExchange exchange;
     private Message message;
-    private Socket socket;
     
-    public MessagerPack(ObjectOutputStream oout, ObjectInputStream oin, Socket socket, Message message){
-        this.oout = oout;
-        this.oin = oin;
+    public MessagerPack(MessageExchange exchange, Message message){
+        this.exchange = exchange;
         this.message = message;
-        this.socket = socket;
-    }
-
-    public ObjectOutputStream getOout(){
-        return oout;
     }
 
-    public ObjectInputStream getOin(){
-        return oin;
+    public MessageExchange getExchange(){
+        return exchange;
     }
 
     public Message getMessage(){
         return message;
     }
-
-    public Socket getSocket(){
-        return socket;
-    }
 }
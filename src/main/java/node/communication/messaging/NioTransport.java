@@ -0,0 +1,215 @@
+package node.communication.messaging;
+
+import node.communication.Address;
+import node.communication.messaging.codec.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport shared by every node in the JVM. A small, fixed set of I/O threads each run a
+ * Selector over many sockets, both accepted and outgoing, and hand complete requests to a small pool of
+ * worker threads. No thread is dedicated to a single socket.
+ * <p>
+ * Some handlers still hold a conversation with another node and wait for its reply, which may need a worker
+ * of this same pool when both nodes share the JVM. The workers are therefore a ForkJoinPool, and waits for
+ * replies go through {@link ForkJoinPool#managedBlock}, so the pool starts a spare thread only for as long as
+ * a worker is blocked and the number running stays at workerThreads.
+ */
+public class NioTransport {
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop;
+    private final ForkJoinPool workers;
+    private final WireFormat wireFormat;
+
+    /**
+     * @param ioThreads     Number of selector threads
+     * @param workerThreads Requests handled at once, not counting workers blocked waiting on a reply.
+     *                      Further requests wait in a queue
+     * @param wireFormat    Format of the messages this JVM sends. Both formats are always understood
+     */
+    public NioTransport(int ioThreads, int workerThreads, WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+        loops = new IoLoop[ioThreads];
+        nextLoop = new AtomicInteger();
+        for (int i = 0; i < ioThreads; i++) {
+            try {
+                loops[i] = new IoLoop(Selector.open());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            Thread thread = new Thread(loops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = new ForkJoinPool(workerThreads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("nio-worker-" + workerCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * Binds a port and serves every connection accepted on it
+     * @param port    Port to bind
+     * @param handler Handles each request, on a worker thread
+     * @return The bound server channel
+     */
+    public ServerSocketChannel listen(int port, PeerConnection.RequestHandler handler) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        nextLoop().register(server, SelectionKey.OP_ACCEPT, handler);
+        return server;
+    }
+
+    /**
+     * Opens a pooled connection to a node
+     * @param address Node to connect to
+     * @return The open connection
+     */
+    public PeerConnection connect(Address address) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(address.getHost(), address.getPort()));
+        channel.socket().setTcpNoDelay(true);
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, PeerConnection.MAGIC);
+        while (magic.hasRemaining()) channel.write(magic);
+        channel.configureBlocking(false);
+
+        PeerConnection connection = new PeerConnection(this, channel, null);
+        connection.setKey(nextLoop().register(channel, SelectionKey.OP_READ, connection));
+        return connection;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Runs a task on the worker pool
+     */
+    public void dispatch(Runnable task) {
+        workers.execute(task);
+    }
+
+    private IoLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Moves an accepted socket which turned out to carry a bare object stream onto a worker thread, where it is
+     * read with ordinary blocking streams
+     */
+    void handOffLegacy(SelectionKey key, PeerConnection connection, byte[] prefix) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        IoLoop loop = loops[0];
+        for (IoLoop candidate : loops) {
+            if (candidate.selector == key.selector()) loop = candidate;
+        }
+        IoLoop owner = loop;
+        key.cancel();
+        owner.execute(() -> {
+            try {
+                owner.selector.selectNow(); // Completes the deregistration so the channel may block again
+                channel.configureBlocking(true);
+                dispatch(() -> connection.serveLegacy(channel, prefix));
+            } catch (IOException e) {
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * One selector thread
+     */
+    class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a channel with this loop's selector from any thread
+         */
+        SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws IOException {
+            CompletableFuture<SelectionKey> registered = new CompletableFuture<>();
+            execute(() -> {
+                try {
+                    registered.complete(channel.register(selector, ops, attachment));
+                } catch (ClosedChannelException e) {
+                    registered.completeExceptionally(e);
+                }
+            });
+            try {
+                return registered.get();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) {
+                            accept(key);
+                            continue;
+                        }
+                        PeerConnection connection = (PeerConnection) key.attachment();
+                        if (key.isWritable()) connection.onWritable();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("NioTransport: " + e);
+                }
+            }
+        }
+
+        private void accept(SelectionKey key) throws IOException {
+            SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) return;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            PeerConnection connection = new PeerConnection(NioTransport.this,
+                    channel, (PeerConnection.RequestHandler) key.attachment());
+            IoLoop loop = nextLoop();
+            loop.execute(() -> {
+                try {
+                    connection.setKey(channel.register(loop.selector, SelectionKey.OP_READ, connection));
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package node.communication.messaging;
+
+import node.communication.messaging.codec.WireFormat;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived TCP connection between two nodes which carries many exchanges at once.
+ * <p>
+ * The connecting side writes {@link #MAGIC} once, after which both sides write frames of the form
+ * <pre>
+ *     int length | int exchangeId | byte flags | body
+ * </pre>
+ * where length covers everything after itself and body is a Message in the wire format named by the flags.
+ * Only the connecting side opens exchanges, so exchange ids are allocated by it and replies simply echo the
+ * id back, in the same format the exchange was opened with.
+ * <p>
+ * Reads and writes are non-blocking and driven by an I/O thread of the NioTransport.
+ */
+public class PeerConnection {
+    /* "BCP1". Serialized object streams always begin with 0xACED, so the two never collide */
+    public static final int MAGIC = 0x42435031;
+    public static final int REPLY_TIMEOUT_MS = 120000;
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    private static final int HEADER_LENGTH = 9;
+    private static final byte FLAG_OPEN = 1;
+    private static final byte FLAG_BINARY = 2;
+    private static final Message CLOSED = new Message(Message.Request.PING);
+
+    /**
+     * Handles the first message of an exchange opened by the other side. Called on a worker thread.
+     */
+    public interface RequestHandler {
+        void handle(Message message, MessageExchange exchange);
+    }
+
+    private final NioTransport transport;
+    private final SocketChannel channel;
+    private final RequestHandler handler;
+    private final ConcurrentHashMap<Integer, Exchange> exchanges;
+    private final AtomicInteger nextExchangeId;
+    private final ArrayDeque<ByteBuffer> writeQueue;
+    private ByteBuffer readBuffer;
+    private volatile SelectionKey key;
+    private volatile boolean closed;
+    /* Accepted connections start out not knowing whether the remote side is a node or a wallet */
+    private boolean sniffing;
+
+    PeerConnection(NioTransport transport, SocketChannel channel, RequestHandler handler) {
+        this.transport = transport;
+        this.channel = channel;
+        this.handler = handler;
+        this.exchanges = new ConcurrentHashMap<>();
+        this.nextExchangeId = new AtomicInteger();
+        this.writeQueue = new ArrayDeque<>();
+        this.readBuffer = ByteBuffer.allocate(64 * 1024);
+        this.sniffing = handler != null;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    public boolean isClosed(){
+        return closed;
+    }
+
+    /**
+     * Sends a message that needs no reply
+     * @param message Message to send
+     */
+    public void sendOneWay(Message message) throws IOException {
+        WireFormat format = transport.getWireFormat();
+        writeFrame(nextExchangeId.incrementAndGet(), (byte) (FLAG_OPEN | flagsFor(format)), encode(format, message));
+    }
+
+    /**
+     * Sends a message and opens an exchange to carry the reply and any further conversation
+     * @param message Message to send
+     * @return The exchange, which the caller must close
+     */
+    public MessageExchange open(Message message) throws IOException {
+        Exchange exchange = new Exchange(nextExchangeId.incrementAndGet(), transport.getWireFormat());
+        exchanges.put(exchange.id, exchange);
+        try {
+            writeFrame(exchange.id, (byte) (FLAG_OPEN | flagsFor(exchange.format)), encode(exchange.format, message));
+        } catch (IOException e) {
+            exchange.close();
+            throw e;
+        }
+        return exchange;
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        for (Exchange exchange : exchanges.values()) {
+            exchange.replies.offer(CLOSED);
+        }
+        exchanges.clear();
+    }
+
+    /**
+     * Called by the I/O thread when the channel has bytes to read
+     */
+    void onReadable() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (sniffing && !sniff()) return;
+            readFrames();
+            readBuffer.compact();
+        } catch (IOException e) {
+            close();
+        } catch (RuntimeException e) {
+            /* A frame that does not decode leaves the buffer mid-frame, so nothing after it can be trusted */
+            System.out.println("PeerConnection: closing after malformed frame. " + e);
+            close();
+        }
+    }
+
+    /**
+     * Decides what an accepted socket is carrying from its first bytes
+     * @return True if frames follow, false if the connection was handed off or more bytes are needed
+     */
+    private boolean sniff() {
+        if (readBuffer.remaining() >= 2 && readBuffer.getShort(readBuffer.position()) == (short) 0xACED) {
+            /* A wallet or client sending a single message over its own socket */
+            byte[] prefix = new byte[readBuffer.remaining()];
+            readBuffer.get(prefix);
+            transport.handOffLegacy(key, this, prefix);
+            return false;
+        }
+        if (readBuffer.remaining() < 4) {
+            readBuffer.compact();
+            return false;
+        }
+        if (readBuffer.getInt() != MAGIC) {
+            close();
+            return false;
+        }
+        sniffing = false;
+        return true;
+    }
+
+    private void readFrames() throws IOException {
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < HEADER_LENGTH - 4 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (readBuffer.remaining() < length + 4) {
+                if (readBuffer.capacity() < length + 4) {
+                    ByteBuffer larger = ByteBuffer.allocate(length + 4);
+                    larger.put(readBuffer);
+                    larger.flip();
+                    readBuffer = larger;
+                }
+                return;
+            }
+            readBuffer.getInt();
+            int exchangeId = readBuffer.getInt();
+            byte flags = readBuffer.get();
+            byte[] body = new byte[length - (HEADER_LENGTH - 4)];
+            readBuffer.get(body);
+            onFrame(exchangeId, flags, formatOf(flags).getCodec().decode(body));
+        }
+    }
+
+    private void onFrame(int exchangeId, byte flags, Message message) {
+        if (handler != null && (flags & FLAG_OPEN) != 0) {
+            Exchange exchange = new Exchange(exchangeId, formatOf(flags));
+            exchanges.put(exchangeId, exchange);
+            transport.dispatch(() -> handler.handle(message, exchange));
+        } else {
+            Exchange exchange = exchanges.get(exchangeId);
+            if (exchange != null) exchange.replies.offer(message);
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel can take more bytes
+     */
+    void onWritable() {
+        try {
+            synchronized (writeQueue) {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer frame = writeQueue.peek();
+                    channel.write(frame);
+                    if (frame.hasRemaining()) return;
+                    writeQueue.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /* Throws NotSentException when no byte of the frame reached the socket, so it is safe to send again */
+    private void writeFrame(int exchangeId, byte flags, byte[] body) throws IOException {
+        if (closed) throw new NotSentException("Connection closed");
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+        frame.putInt(HEADER_LENGTH - 4 + body.length).putInt(exchangeId).put(flags).put(body).flip();
+
+        synchronized (writeQueue) {
+            /* Write straight away when nothing is queued, only waking the I/O thread if the socket is full */
+            if (writeQueue.isEmpty()) {
+                try {
+                    channel.write(frame);
+                } catch (IOException e) {
+                    close();
+                    if (frame.position() == 0) throw new NotSentException(e);
+                    throw e;
+                }
+                if (!frame.hasRemaining()) return;
+            }
+            writeQueue.add(frame);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        }
+    }
+
+    /**
+     * Reads the single message a wallet or client sent over its own socket, on a worker thread with the
+     * channel switched back to blocking mode
+     * @param prefix Bytes already read while deciding what the socket carries
+     */
+    void serveLegacy(SocketChannel channel, byte[] prefix) {
+        try {
+            OutputStream out = Channels.newOutputStream(channel);
+            InputStream in = new SequenceInputStream(new ByteArrayInputStream(prefix), Channels.newInputStream(channel));
+            ObjectOutputStream oout = new ObjectOutputStream(out);
+            ObjectInputStream oin = new ObjectInputStream(in);
+            Message incomingMessage = (Message) oin.readObject();
+            handler.handle(incomingMessage, new StreamExchange(channel, oout, oin));
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("PeerConnection: " + e);
+            close();
+        }
+    }
+
+    private static byte[] encode(WireFormat format, Message message) throws IOException {
+        return format.getCodec().encode(message);
+    }
+
+    private static byte flagsFor(WireFormat format) {
+        return format == WireFormat.BINARY ? FLAG_BINARY : 0;
+    }
+
+    private static WireFormat formatOf(byte flags) {
+        return (flags & FLAG_BINARY) != 0 ? WireFormat.BINARY : WireFormat.JAVA;
+    }
+
+    /**
+     * A write that failed before any of its frame was written, so the other side cannot have seen it
+     */
+    public static class NotSentException extends IOException {
+        NotSentException(String message) {
+            super(message);
+        }
+
+        NotSentException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * An exchange multiplexed over this connection
+     */
+    class Exchange implements MessageExchange {
+        private final int id;
+        private final WireFormat format;
+        private final LinkedBlockingQueue<Message> replies;
+
+        Exchange(int id, WireFormat format){
+            this.id = id;
+            this.format = format;
+            this.replies = new LinkedBlockingQueue<>();
+        }
+
+        public void send(Message message) throws IOException {
+            writeFrame(id, flagsFor(format), encode(format, message));
+        }
+
+        public Message receive() throws IOException {
+            Reply reply = new Reply();
+            try {
+                ForkJoinPool.managedBlock(reply);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            Message message = reply.message;
+            if (message == null) throw new SocketTimeoutException("No reply on exchange " + id);
+            if (message == CLOSED) throw new EOFException("Connection closed");
+            return message;
+        }
+
+        public void close() {
+            exchanges.remove(id);
+        }
+
+        /* Waits for the next reply, letting the worker pool cover for this thread meanwhile */
+        private class Reply implements ForkJoinPool.ManagedBlocker {
+            private Message message;
+
+            public boolean block() throws InterruptedException {
+                if (message == null) message = replies.poll(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return message != null || (message = replies.poll()) != null;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package node.communication.messaging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A MessageExchange over a dedicated socket carrying Java object streams. This is the format spoken by
+ * wallets and clients, which open one socket per message.
+ */
+public class StreamExchange implements MessageExchange {
+    private final Closeable socket;
+    private final ObjectOutputStream oout;
+    private final ObjectInputStream oin;
+
+    public StreamExchange(Closeable socket, ObjectOutputStream oout, ObjectInputStream oin){
+        this.socket = socket;
+        this.oout = oout;
+        this.oin = oin;
+    }
+
+    public void send(Message message) throws IOException {
+        oout.writeObject(message);
+        oout.flush();
+    }
+
+    public Message receive() throws IOException {
+        try {
+            return (Message) oin.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+}
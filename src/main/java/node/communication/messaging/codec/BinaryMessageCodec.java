@@ -0,0 +1,48 @@
+package node.communication.messaging.codec;
+
+import node.communication.messaging.Message;
+
+import java.io.IOException;
+
+/**
+ * Encodes messages in a compact, hand written binary layout:
+ * <pre>
+ *     byte version | byte request ordinal + 1 (0 when absent) | metadata value
+ * </pre>
+ * Values are tagged as described in {@link WireWriter}. Payload types registered with the
+ * {@link CodecRegistry} are written field by field, anything else falls back to Java serialization.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final byte VERSION = 1;
+
+    private static final Message.Request[] REQUESTS = Message.Request.values();
+
+    private final CodecRegistry registry;
+
+    public BinaryMessageCodec() {
+        this(CodecRegistry.standard());
+    }
+
+    public BinaryMessageCodec(CodecRegistry registry) {
+        this.registry = registry;
+    }
+
+    public byte[] encode(Message message) throws IOException {
+        WireWriter out = new WireWriter(registry);
+        out.writeByte(VERSION);
+        out.writeByte(message.getRequest() == null ? 0 : message.getRequest().ordinal() + 1);
+        out.writeValue(message.getMetadata());
+        return out.toByteArray();
+    }
+
+    public Message decode(byte[] body) throws IOException {
+        WireReader in = new WireReader(registry, body);
+        int version = in.readByte();
+        if (version != VERSION) throw new IOException("Unsupported binary message version " + version);
+
+        int request = in.readByte() & 0xFF;
+        if (request > REQUESTS.length) throw new IOException("Unknown request " + (request - 1));
+        Object metadata = in.readValue();
+        return new Message(request == 0 ? null : REQUESTS[request - 1], metadata);
+    }
+}
@@ -0,0 +1,104 @@
+package node.communication.messaging.codec;
+
+import node.blockchain.BlockSkeleton;
+import node.blockchain.CompactBlockSkeleton;
+import node.blockchain.defi.DefiTransaction;
+import node.blockchain.ml_verification.ModelData;
+import node.communication.Address;
+import node.communication.BlockSignature;
+import node.communication.Quorum;
+import node.communication.messaging.Message;
+import node.communication.utils.DSA;
+import node.communication.utils.Hashing;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.*;
+
+/**
+ * Compares bytes on the wire and encode / decode time of the Java serialization and binary formats
+ * for the messages nodes send most.
+ * <p>
+ * Usage: CodecBenchmark [iterations]
+ */
+public class CodecBenchmark {
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        LinkedHashMap<String, Message> messages = sampleMessages();
+        System.out.printf("%-22s %-7s %10s %14s %14s%n", "message", "format", "bytes", "encode ns/op", "decode ns/op");
+        for (Map.Entry<String, Message> entry : messages.entrySet()) {
+            for (WireFormat format : WireFormat.values()) {
+                MessageCodec codec = format.getCodec();
+                byte[] encoded = codec.encode(entry.getValue());
+
+                /* Warm up both paths before timing them */
+                run(codec, entry.getValue(), encoded, iterations);
+                long[] nanos = run(codec, entry.getValue(), encoded, iterations);
+
+                System.out.printf("%-22s %-7s %10d %14d %14d%n", entry.getKey(), format, encoded.length,
+                        nanos[0] / iterations, nanos[1] / iterations);
+            }
+        }
+    }
+
+    private static long[] run(MessageCodec codec, Message message, byte[] encoded, int iterations) throws IOException {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += codec.encode(message).length;
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += codec.decode(encoded).getRequest().ordinal();
+        long decodeNanos = System.nanoTime() - start;
+
+        if (sink == 42) System.out.println();
+        return new long[]{encodeNanos, decodeNanos};
+    }
+
+    private static LinkedHashMap<String, Message> sampleMessages() {
+        KeyPair keys = DSA.generateDSAKeyPair();
+        String from = DSA.bytesToString(keys.getPublic().getEncoded());
+        String to = DSA.bytesToString(DSA.generateDSAKeyPair().getPublic().getEncoded());
+        Address address = new Address(8042, "192.168.0.17");
+
+        DefiTransaction transaction = new DefiTransaction(to, from, 10, String.valueOf(System.currentTimeMillis()));
+        transaction.setSigUID(DSA.signHash(transaction.getUID(), keys.getPrivate()));
+
+        boolean[] intervals = new boolean[20];
+        Arrays.fill(intervals, true);
+        ModelData modelData = new ModelData("/models/clean_model_snapshots/model_3", "1690000000000", intervals);
+
+        HashSet<String> memPoolKeys = new HashSet<>();
+        ArrayList<String> blockKeys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String key = Hashing.getSHAString("transaction " + i);
+            memPoolKeys.add(key);
+            blockKeys.add(key);
+        }
+
+        String blockHash = Hashing.getSHAString("block");
+        ArrayList<BlockSignature> signatures = new ArrayList<>();
+        ArrayList<Address> quorumMembers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) quorumMembers.add(new Address(8000 + i, "192.168.0.17"));
+        for (int i = 0; i < 49; i++) {
+            signatures.add(new BlockSignature(DSA.signHash(blockHash, keys.getPrivate()), blockHash,
+                    quorumMembers.get(i)));
+        }
+        HashMap<Integer, Boolean> validatedIntervals = new HashMap<>();
+        for (int i = 0; i < 10; i++) validatedIntervals.put(i, true);
+
+        LinkedHashMap<String, Message> messages = new LinkedHashMap<>();
+        messages.put("PING", new Message(Message.Request.PING));
+        messages.put("REQUEST_CONNECTION", new Message(Message.Request.REQUEST_CONNECTION, address));
+        messages.put("ADD_TRANSACTION defi", new Message(Message.Request.ADD_TRANSACTION, transaction));
+        messages.put("ADD_TRANSACTION ml", new Message(Message.Request.ADD_TRANSACTION, modelData));
+        messages.put("RECEIVE_MEMPOOL 100", new Message(Message.Request.RECEIVE_MEMPOOL, memPoolKeys));
+        messages.put("RECEIVE_SIGNATURE", new Message(Message.Request.RECEIVE_SIGNATURE, signatures.get(0)));
+        BlockSkeleton skeleton = new BlockSkeleton(12, blockKeys, signatures, blockHash, validatedIntervals, true);
+        messages.put("RECEIVE_SKELETON 100", new Message(Message.Request.RECEIVE_SKELETON, skeleton));
+        messages.put("compact SKELETON 100", new Message(Message.Request.RECEIVE_SKELETON,
+                CompactBlockSkeleton.of(skeleton, new Quorum(quorumMembers), address)));
+        return messages;
+    }
+}
@@ -0,0 +1,284 @@
+package node.communication.messaging.codec;
+
+import node.blockchain.BlockSkeleton;
+import node.blockchain.CompactBlockSkeleton;
+import node.blockchain.Transaction;
+import node.blockchain.defi.DefiBlock;
+import node.blockchain.defi.DefiTransaction;
+import node.blockchain.ml_verification.MLBlock;
+import node.blockchain.ml_verification.ModelData;
+import node.communication.Address;
+import node.communication.BlockSignature;
+import node.communication.QuorumCertificate;
+import node.communication.reconciliation.InvertibleBloomFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Maps payload types to the codecs which write them field by field. Ids are part of the wire format, so an
+ * id must never be reused for a different type once released.
+ */
+public class CodecRegistry {
+    private static final CodecRegistry STANDARD = createStandard();
+
+    private final HashMap<Class<?>, Entry<?>> byClass;
+    private final ArrayList<Entry<?>> byId;
+
+    public CodecRegistry() {
+        byClass = new HashMap<>();
+        byId = new ArrayList<>();
+    }
+
+    /**
+     * @return The registry of every payload type nodes send
+     */
+    public static CodecRegistry standard() {
+        return STANDARD;
+    }
+
+    public <T> void register(int id, Class<T> type, PayloadCodec<T> codec) {
+        while (byId.size() <= id) byId.add(null);
+        if (byId.get(id) != null) throw new IllegalArgumentException("Codec id " + id + " already registered");
+        Entry<T> entry = new Entry<>(id, codec);
+        byId.set(id, entry);
+        byClass.put(type, entry);
+    }
+
+    Entry<?> forClass(Class<?> type) {
+        return byClass.get(type);
+    }
+
+    Entry<?> forId(int id) {
+        return id >= 0 && id < byId.size() ? byId.get(id) : null;
+    }
+
+    static class Entry<T> {
+        private final int id;
+        private final PayloadCodec<T> codec;
+
+        Entry(int id, PayloadCodec<T> codec) {
+            this.id = id;
+            this.codec = codec;
+        }
+
+        int getId() { return id; }
+        PayloadCodec<T> getCodec() { return codec; }
+    }
+
+    private static CodecRegistry createStandard() {
+        CodecRegistry registry = new CodecRegistry();
+
+        registry.register(0, Address.class, new PayloadCodec<Address>() {
+            public void write(Address address, WireWriter out) {
+                out.writeVarInt(address.getPort());
+                out.writeString(address.getHost());
+            }
+
+            public Address read(WireReader in) throws IOException {
+                int port = in.readVarInt();
+                return new Address(port, in.readString());
+            }
+        });
+
+        registry.register(1, BlockSignature.class, new PayloadCodec<BlockSignature>() {
+            public void write(BlockSignature signature, WireWriter out) throws IOException {
+                out.writeBytes(signature.getSignature());
+                out.writeValue(signature.getHash());
+                out.writeValue(signature.getAddress());
+            }
+
+            public BlockSignature read(WireReader in) throws IOException {
+                byte[] signature = in.readBytes();
+                String hash = in.readValue(String.class);
+                return new BlockSignature(signature, hash, in.readValue(Address.class));
+            }
+        });
+
+        registry.register(2, BlockSkeleton.class, new PayloadCodec<BlockSkeleton>() {
+            public void write(BlockSkeleton skeleton, WireWriter out) throws IOException {
+                out.writeVarInt(skeleton.getBlockId());
+                out.writeValue(skeleton.getHash());
+                out.writeValue(skeleton.getKeys());
+                out.writeValue(skeleton.getSignatures());
+                out.writeValue(skeleton.getValidatedIntervals());
+            }
+
+            @SuppressWarnings("unchecked")
+            public BlockSkeleton read(WireReader in) throws IOException {
+                int blockId = in.readVarInt();
+                String hash = in.readValue(String.class);
+                ArrayList<String> keys = in.readValue(ArrayList.class);
+                ArrayList<BlockSignature> signatures = in.readValue(ArrayList.class);
+                HashMap<Integer, Boolean> validatedIntervals = in.readValue(HashMap.class);
+                return new BlockSkeleton(blockId, keys, signatures, hash, validatedIntervals, false);
+            }
+        });
+
+        registry.register(3, DefiTransaction.class, new PayloadCodec<DefiTransaction>() {
+            public void write(DefiTransaction transaction, WireWriter out) {
+                out.writeString(transaction.getTo());
+                out.writeString(transaction.getFrom());
+                out.writeSignedVarInt(transaction.getAmount());
+                out.writeString(transaction.getTimestamp());
+                out.writeBytes(transaction.getSigUID());
+            }
+
+            public DefiTransaction read(WireReader in) throws IOException {
+                String to = in.readString();
+                String from = in.readString();
+                int amount = in.readSignedVarInt();
+                DefiTransaction transaction = new DefiTransaction(to, from, amount, in.readString());
+                transaction.setSigUID(in.readBytes());
+                return transaction;
+            }
+        });
+
+        registry.register(4, ModelData.class, new PayloadCodec<ModelData>() {
+            public void write(ModelData modelData, WireWriter out) throws IOException {
+                out.writeString(modelData.getSnapshotsFilePath());
+                out.writeString(modelData.getTimestamp());
+                out.writeValue(modelData.getIntervalsValidity());
+                out.writeBytes(modelData.getSigUID());
+            }
+
+            public ModelData read(WireReader in) throws IOException {
+                String snapshotsFilePath = in.readString();
+                String timestamp = in.readString();
+                boolean[] intervalsValidity = in.readValue(boolean[].class);
+                ModelData modelData = new ModelData(snapshotsFilePath, timestamp, intervalsValidity);
+                modelData.setSigUID(in.readBytes());
+                return modelData;
+            }
+        });
+
+        registry.register(5, InvertibleBloomFilter.class, new PayloadCodec<InvertibleBloomFilter>() {
+            public void write(InvertibleBloomFilter table, WireWriter out) {
+                out.writeVarInt(table.size());
+                /* Counts in a difference-sized table are small, check sums are random so go out whole */
+                for (int count : table.getCounts()) out.writeSignedVarInt(count);
+                byte[] keySums = table.getKeySums();
+                out.writeRaw(keySums, 0, keySums.length);
+                ByteBuffer hashSums = ByteBuffer.allocate(table.size() * Long.BYTES);
+                for (long hashSum : table.getHashSums()) hashSums.putLong(hashSum);
+                out.writeRaw(hashSums.array(), 0, hashSums.capacity());
+            }
+
+            public InvertibleBloomFilter read(WireReader in) throws IOException {
+                int size = in.readCount();
+                int[] counts = new int[size];
+                for (int i = 0; i < size; i++) counts[i] = in.readSignedVarInt();
+                byte[] keySums = in.readRaw(size * InvertibleBloomFilter.KEY_LENGTH);
+                ByteBuffer hashSumBytes = ByteBuffer.wrap(in.readRaw(size * Long.BYTES));
+                long[] hashSums = new long[size];
+                for (int i = 0; i < size; i++) hashSums[i] = hashSumBytes.getLong();
+                return new InvertibleBloomFilter(counts, keySums, hashSums);
+            }
+        });
+
+        registry.register(6, CompactBlockSkeleton.class, new PayloadCodec<CompactBlockSkeleton>() {
+            public void write(CompactBlockSkeleton skeleton, WireWriter out) throws IOException {
+                out.writeVarInt(skeleton.getBlockId());
+                out.writeValue(skeleton.getHash());
+                long[] shortIds = skeleton.getShortIds();
+                out.writeVarInt(shortIds.length);
+                byte[] packed = new byte[shortIds.length * CompactBlockSkeleton.SHORT_ID_BYTES];
+                for (int i = 0, p = 0; i < shortIds.length; i++) {
+                    for (int b = CompactBlockSkeleton.SHORT_ID_BYTES - 1; b >= 0; b--) {
+                        packed[p++] = (byte) (shortIds[i] >>> (8 * b));
+                    }
+                }
+                out.writeRaw(packed, 0, packed.length);
+                out.writeValue(skeleton.getCertificate());
+                out.writeValue(skeleton.getValidatedIntervals());
+                out.writeValue(skeleton.getRelay());
+            }
+
+            @SuppressWarnings("unchecked")
+            public CompactBlockSkeleton read(WireReader in) throws IOException {
+                int blockId = in.readVarInt();
+                String hash = in.readValue(String.class);
+                long[] shortIds = new long[in.readCount()];
+                byte[] packed = in.readRaw(shortIds.length * CompactBlockSkeleton.SHORT_ID_BYTES);
+                for (int i = 0, p = 0; i < shortIds.length; i++) {
+                    long shortId = 0;
+                    for (int b = 0; b < CompactBlockSkeleton.SHORT_ID_BYTES; b++) {
+                        shortId = (shortId << 8) | (packed[p++] & 0xFF);
+                    }
+                    shortIds[i] = shortId;
+                }
+                QuorumCertificate certificate = in.readValue(QuorumCertificate.class);
+                HashMap<Integer, Boolean> validatedIntervals = in.readValue(HashMap.class);
+                return new CompactBlockSkeleton(blockId, hash, shortIds, certificate, validatedIntervals,
+                        in.readValue(Address.class));
+            }
+        });
+
+        registry.register(7, QuorumCertificate.class, new PayloadCodec<QuorumCertificate>() {
+            public void write(QuorumCertificate certificate, WireWriter out) throws IOException {
+                out.writeValue(certificate.getBlockHash());
+                out.writeBytes(certificate.getSigners());
+                for (byte[] signature : certificate.getSignatures()) out.writeBytes(signature);
+            }
+
+            public QuorumCertificate read(WireReader in) throws IOException {
+                String blockHash = in.readValue(String.class);
+                byte[] signers = in.readBytes();
+                /* The bitmap says how many signatures follow */
+                int count = in.checkCount(BitSet.valueOf(signers).cardinality());
+                ArrayList<byte[]> signatures = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) signatures.add(in.readBytes());
+                return new QuorumCertificate(blockHash, signers, signatures);
+            }
+        });
+
+        /* Blocks as the block store keeps them. Peers still exchange skeletons rather than blocks */
+        registry.register(8, DefiBlock.class, new PayloadCodec<DefiBlock>() {
+            public void write(DefiBlock block, WireWriter out) throws IOException {
+                out.writeVarInt(block.getBlockId());
+                out.writeValue(block.getPrevBlockHash());
+                out.writeValue(block.getMerkleRootHash());
+                out.writeValue(block.getTxList());
+            }
+
+            @SuppressWarnings("unchecked")
+            public DefiBlock read(WireReader in) throws IOException {
+                int blockId = in.readVarInt();
+                String prevBlockHash = in.readValue(String.class);
+                String merkleRootHash = in.readValue(String.class);
+                HashMap<String, Transaction> txList = in.readValue(HashMap.class);
+                DefiBlock block = new DefiBlock(txList, prevBlockHash, blockId);
+                block.setMerkleRootHash(merkleRootHash);
+                return block;
+            }
+        });
+
+        registry.register(9, MLBlock.class, new PayloadCodec<MLBlock>() {
+            public void write(MLBlock block, WireWriter out) throws IOException {
+                out.writeVarInt(block.getBlockId());
+                out.writeValue(block.getPrevBlockHash());
+                out.writeValue(block.getMerkleRootHash());
+                out.writeValue(block.getTxList());
+                out.writeValue(block.getValidatedIntervals());
+                out.writeBoolean(block.isVerified());
+            }
+
+            @SuppressWarnings("unchecked")
+            public MLBlock read(WireReader in) throws IOException {
+                int blockId = in.readVarInt();
+                String prevBlockHash = in.readValue(String.class);
+                String merkleRootHash = in.readValue(String.class);
+                HashMap<String, Transaction> txList = in.readValue(HashMap.class);
+                HashMap<Integer, Boolean> validatedIntervals = in.readValue(HashMap.class);
+                MLBlock block = new MLBlock(txList, prevBlockHash, blockId, validatedIntervals, in.readBoolean());
+                block.setMerkleRootHash(merkleRootHash);
+                return block;
+            }
+        });
+
+        return registry;
+    }
+}
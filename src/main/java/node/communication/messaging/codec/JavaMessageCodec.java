@@ -0,0 +1,27 @@
+package node.communication.messaging.codec;
+
+import node.communication.messaging.Message;
+
+import java.io.*;
+
+/**
+ * Encodes messages with Java serialization, the format nodes have always spoken
+ */
+public class JavaMessageCodec implements MessageCodec {
+
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bytes);
+        oout.writeObject(message);
+        oout.close();
+        return bytes.toByteArray();
+    }
+
+    public Message decode(byte[] body) throws IOException {
+        try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(body))) {
+            return (Message) oin.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
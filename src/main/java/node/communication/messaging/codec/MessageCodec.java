@@ -0,0 +1,14 @@
+package node.communication.messaging.codec;
+
+import node.communication.messaging.Message;
+
+import java.io.IOException;
+
+/**
+ * Turns a Message into the body of a frame and back
+ */
+public interface MessageCodec {
+    byte[] encode(Message message) throws IOException;
+
+    Message decode(byte[] body) throws IOException;
+}
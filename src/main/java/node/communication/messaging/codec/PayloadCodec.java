@@ -0,0 +1,13 @@
+package node.communication.messaging.codec;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads the fields of one payload type
+ * @param <T> The payload type
+ */
+public interface PayloadCodec<T> {
+    void write(T value, WireWriter out) throws IOException;
+
+    T read(WireReader in) throws IOException;
+}
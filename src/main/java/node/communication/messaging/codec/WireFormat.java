@@ -0,0 +1,20 @@
+package node.communication.messaging.codec;
+
+/**
+ * The encodings a frame body may use. Every node decodes both, and encodes with the one it is configured
+ * for, so a network can move from one format to the other a node at a time.
+ */
+public enum WireFormat {
+    JAVA(new JavaMessageCodec()),
+    BINARY(new BinaryMessageCodec());
+
+    private final MessageCodec codec;
+
+    WireFormat(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,168 @@
+package node.communication.messaging.codec;
+
+import node.communication.utils.Hashing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static node.communication.messaging.codec.WireWriter.*;
+
+/**
+ * Reads what a {@link WireWriter} wrote
+ */
+public class WireReader {
+    private final CodecRegistry registry;
+    private final byte[] buffer;
+    private int position;
+
+    public WireReader(CodecRegistry registry, byte[] buffer) {
+        this.registry = registry;
+        this.buffer = buffer;
+    }
+
+    public int readByte() throws IOException {
+        if (position >= buffer.length) throw new EOFException();
+        return buffer[position++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Reads the number of elements that follow, each taking at least one byte. A peer can only make the
+     * reader allocate as much as the frame it actually sent
+     * @throws IOException If the count is negative or more than the bytes left
+     */
+    public int readCount() throws IOException {
+        return checkCount(readVarInt());
+    }
+
+    /**
+     * @return count, if that many elements of at least one byte each could still follow
+     * @throws IOException If not
+     */
+    public int checkCount(int count) throws IOException {
+        if (count < 0 || count > buffer.length - position) throw new IOException("Bad element count " + count);
+        return count;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readVarInt() - 1;
+        if (length == -1) return null;
+        return readRaw(length);
+    }
+
+    public byte[] readRaw(int length) throws IOException {
+        if (length < 0) throw new IOException("Bad length " + length);
+        if (length > buffer.length - position) throw new EOFException();
+        byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    public String readString() throws IOException {
+        byte[] bytes = readBytes();
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String readHash() throws IOException {
+        return Hashing.toHexString(readRaw(Hashing.SHA_LENGTH));
+    }
+
+    public Object readValue() throws IOException {
+        int tag = readVarInt();
+        switch (tag) {
+            case TAG_NULL: return null;
+            case TAG_TRUE: return true;
+            case TAG_FALSE: return false;
+            case TAG_INT: return readSignedVarInt();
+            case TAG_LONG: return readSignedVarLong();
+            case TAG_STRING: return readString();
+            case TAG_HASH: return readHash();
+            case TAG_BYTES: return readBytes();
+            case TAG_BOOLEANS: {
+                boolean[] booleans = new boolean[readCount()];
+                for (int i = 0; i < booleans.length; i++) booleans[i] = readBoolean();
+                return booleans;
+            }
+            case TAG_LIST: {
+                int size = readCount();
+                ArrayList<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(readValue());
+                return list;
+            }
+            case TAG_SET: {
+                int size = readCount();
+                HashSet<Object> set = new HashSet<>();
+                for (int i = 0; i < size; i++) set.add(readValue());
+                return set;
+            }
+            case TAG_ARRAY: {
+                Object[] array = new Object[readCount()];
+                for (int i = 0; i < array.length; i++) array[i] = readValue();
+                return array;
+            }
+            case TAG_MAP: {
+                int size = readCount();
+                HashMap<Object, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) map.put(readValue(), readValue());
+                return map;
+            }
+            case TAG_SERIALIZED: {
+                try (ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(readBytes()))) {
+                    return oin.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+            default: {
+                CodecRegistry.Entry<?> entry = registry.forId(tag - TAG_PAYLOAD);
+                if (entry == null) throw new IOException("Unknown value tag " + tag);
+                return entry.getCodec().read(this);
+            }
+        }
+    }
+
+    /**
+     * Reads a value written by {@link WireWriter#writeValue(Object)} and checks its type
+     */
+    public <T> T readValue(Class<T> type) throws IOException {
+        Object value = readValue();
+        if (value != null && !type.isInstance(value)) {
+            throw new IOException("Expected " + type.getSimpleName() + " but read " + value.getClass().getSimpleName());
+        }
+        return type.cast(value);
+    }
+}
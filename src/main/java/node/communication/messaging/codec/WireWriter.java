@@ -0,0 +1,209 @@
+package node.communication.messaging.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Growable buffer for the binary wire format. Integers are written as varints, ints zigzag encoded so small
+ * negatives stay short. Values written with {@link #writeValue(Object)} are preceded by one of the tags below.
+ */
+public class WireWriter {
+    static final int TAG_NULL = 0;
+    static final int TAG_TRUE = 1;
+    static final int TAG_FALSE = 2;
+    static final int TAG_INT = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_STRING = 5;
+    static final int TAG_HASH = 6;
+    static final int TAG_BYTES = 7;
+    static final int TAG_LIST = 8;
+    static final int TAG_SET = 9;
+    static final int TAG_ARRAY = 10;
+    static final int TAG_MAP = 11;
+    static final int TAG_BOOLEANS = 12;
+    static final int TAG_SERIALIZED = 15;
+    /* Registered payload types are tagged TAG_PAYLOAD + their registry id */
+    static final int TAG_PAYLOAD = 16;
+
+    private final CodecRegistry registry;
+    private byte[] buffer;
+    private int position;
+
+    public WireWriter(CodecRegistry registry) {
+        this.registry = registry;
+        this.buffer = new byte[256];
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeBytes(byte[] bytes) {
+        if (bytes == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(bytes.length + 1);
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    public void writeRaw(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 bytes
+     */
+    public void writeString(String value) {
+        writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a 64 character hex hash as its 32 raw bytes
+     */
+    public void writeHash(String hash) {
+        ensure(32);
+        for (int i = 0; i < 32; i++) {
+            buffer[position++] = (byte) ((hexDigit(hash.charAt(2 * i)) << 4) | hexDigit(hash.charAt(2 * i + 1)));
+        }
+    }
+
+    /**
+     * Writes any value nodes put in a Message, preceded by its tag
+     */
+    public void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer) {
+            writeByte(TAG_INT);
+            writeSignedVarInt((Integer) value);
+        } else if (value instanceof Long) {
+            writeByte(TAG_LONG);
+            writeSignedVarLong((Long) value);
+        } else if (value instanceof String) {
+            String string = (String) value;
+            if (isHash(string)) {
+                writeByte(TAG_HASH);
+                writeHash(string);
+            } else {
+                writeByte(TAG_STRING);
+                writeString(string);
+            }
+        } else if (value instanceof byte[]) {
+            writeByte(TAG_BYTES);
+            writeBytes((byte[]) value);
+        } else if (value instanceof boolean[]) {
+            boolean[] booleans = (boolean[]) value;
+            writeByte(TAG_BOOLEANS);
+            writeVarInt(booleans.length);
+            for (boolean b : booleans) writeBoolean(b);
+        } else if (value.getClass() == ArrayList.class) {
+            writeByte(TAG_LIST);
+            writeElements((Collection<?>) value);
+        } else if (value.getClass() == HashSet.class) {
+            writeByte(TAG_SET);
+            writeElements((Collection<?>) value);
+        } else if (value.getClass() == Object[].class) {
+            writeByte(TAG_ARRAY);
+            writeElements(Arrays.asList((Object[]) value));
+        } else if (value.getClass() == HashMap.class) {
+            writeByte(TAG_MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else {
+            writePayload(value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writePayload(Object value) throws IOException {
+        CodecRegistry.Entry<Object> entry = (CodecRegistry.Entry<Object>) registry.forClass(value.getClass());
+        if (entry != null) {
+            writeVarInt(TAG_PAYLOAD + entry.getId());
+            entry.getCodec().write(value, this);
+            return;
+        }
+
+        /* Not worth a hand written layout, such as whole blocks sent on request */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oout = new ObjectOutputStream(bytes)) {
+            oout.writeObject(value);
+        }
+        writeByte(TAG_SERIALIZED);
+        writeBytes(bytes.toByteArray());
+    }
+
+    private void writeElements(Collection<?> values) throws IOException {
+        writeVarInt(values.size());
+        for (Object element : values) writeValue(element);
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != 64) return false;
+        for (int i = 0; i < 64; i++) {
+            char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        return c <= '9' ? c - '0' : c - 'a' + 10;
+    }
+
+    private void ensure(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package node.communication.reconciliation;
+
+import node.communication.utils.Hash;
+import node.communication.utils.Hashing;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * An invertible Bloom lookup table over 32 byte transaction ids. Two peers each build one of the same size
+ * from their mempool keys; subtracting one from the other leaves only the keys they do not share, which
+ * can be listed as long as there are not many more of them than about two thirds of the cell count.
+ * Its size, and so what it costs to send, depends on the expected difference rather than the mempool size.
+ */
+public class InvertibleBloomFilter implements Serializable {
+    public static final int KEY_LENGTH = Hashing.SHA_LENGTH;
+    /* Bytes a cell takes on the wire: count, key sum and check sum */
+    public static final int CELL_BYTES = 4 + KEY_LENGTH + 8;
+    private static final int HASHES = 3;
+
+    private final int[] counts;
+    private final byte[] keySums;
+    private final long[] hashSums;
+
+    /**
+     * @param cells Number of cells, rounded up to a multiple of the number of hash functions
+     */
+    public InvertibleBloomFilter(int cells) {
+        int size = Math.max(HASHES, (cells + HASHES - 1) / HASHES * HASHES);
+        this.counts = new int[size];
+        this.keySums = new byte[size * KEY_LENGTH];
+        this.hashSums = new long[size];
+    }
+
+    /**
+     * Rebuilds a table read off the wire
+     */
+    public InvertibleBloomFilter(int[] counts, byte[] keySums, long[] hashSums) {
+        if (counts.length % HASHES != 0 || keySums.length != counts.length * KEY_LENGTH
+                || hashSums.length != counts.length) {
+            throw new IllegalArgumentException("Malformed table");
+        }
+        this.counts = counts;
+        this.keySums = keySums;
+        this.hashSums = hashSums;
+    }
+
+    /**
+     * @param keys Hex transaction ids
+     */
+    public static InvertibleBloomFilter of(Collection<String> keys, int cells) {
+        InvertibleBloomFilter table = new InvertibleBloomFilter(cells);
+        for (String key : keys) table.add(key);
+        return table;
+    }
+
+    public void add(String key) {
+        toggle(Hash.fromHex(key).toBytes(), 1);
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    public int[] getCounts() { return counts; }
+    public byte[] getKeySums() { return keySums; }
+    public long[] getHashSums() { return hashSums; }
+
+    /**
+     * @return This table minus another of the same size. Keys in both cancel out
+     */
+    public InvertibleBloomFilter subtract(InvertibleBloomFilter other) {
+        if (other.size() != size()) throw new IllegalArgumentException("Tables differ in size");
+        InvertibleBloomFilter difference = new InvertibleBloomFilter(size());
+        for (int i = 0; i < counts.length; i++) {
+            difference.counts[i] = counts[i] - other.counts[i];
+            difference.hashSums[i] = hashSums[i] ^ other.hashSums[i];
+        }
+        for (int i = 0; i < keySums.length; i++) {
+            difference.keySums[i] = (byte) (keySums[i] ^ other.keySums[i]);
+        }
+        return difference;
+    }
+
+    /**
+     * Lists the keys of a difference table. Consumes the table.
+     * @return The keys only in the minuend and only in the subtrahend, or null if the difference was too
+     * large for this table size
+     */
+    public Difference decode() {
+        HashSet<String> onlyHere = new HashSet<>();
+        HashSet<String> onlyThere = new HashSet<>();
+        byte[] key = new byte[KEY_LENGTH];
+
+        boolean peeled = true;
+        while (peeled) {
+            peeled = false;
+            for (int i = 0; i < counts.length; i++) {
+                int count = counts[i];
+                if (count != 1 && count != -1) continue;
+                System.arraycopy(keySums, i * KEY_LENGTH, key, 0, KEY_LENGTH);
+                if (hashSums[i] != checkHash(key)) continue;
+
+                String hex = Hashing.toHexString(key);
+                if (count == 1) onlyHere.add(hex);
+                else onlyThere.add(hex);
+                toggle(key.clone(), -count);
+                peeled = true;
+            }
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0 || hashSums[i] != 0) return null;
+        }
+        return new Difference(onlyHere, onlyThere);
+    }
+
+    private void toggle(byte[] key, int count) {
+        long check = checkHash(key);
+        int partition = counts.length / HASHES;
+        for (int h = 0; h < HASHES; h++) {
+            /* Each hash function gets its own slice of the table, so a key never lands in one cell twice */
+            int cell = h * partition + (int) Long.remainderUnsigned(readLong(key, 8 * h), partition);
+            counts[cell] += count;
+            hashSums[cell] ^= check;
+            int offset = cell * KEY_LENGTH;
+            for (int i = 0; i < KEY_LENGTH; i++) keySums[offset + i] ^= key[i];
+        }
+    }
+
+    /* Ids are SHA-256 outputs, so their bytes already serve as independent hashes */
+    private static long checkHash(byte[] key) {
+        long h = readLong(key, 24) ^ 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (bytes[offset + i] & 0xFF);
+        return value;
+    }
+
+    public static class Difference {
+        private final HashSet<String> onlyHere;
+        private final HashSet<String> onlyThere;
+
+        Difference(HashSet<String> onlyHere, HashSet<String> onlyThere) {
+            this.onlyHere = onlyHere;
+            this.onlyThere = onlyThere;
+        }
+
+        /**
+         * @return Keys in the table subtracted from, missing from the other
+         */
+        public HashSet<String> getOnlyHere() { return onlyHere; }
+
+        /**
+         * @return Keys in the table that was subtracted, missing from the first
+         */
+        public HashSet<String> getOnlyThere() { return onlyThere; }
+    }
+}
@@ -0,0 +1,49 @@
+package node.communication.reconciliation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What mempool reconciliation has cost a node, next to what sending the whole key set, as nodes used
+ * to, would have cost for the same rounds. Byte counts cover ids and tables, not the transactions
+ * fetched afterwards, which both approaches send alike.
+ */
+public class SyncStats {
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder fullKeySetBytes = new LongAdder();
+    private final LongAdder fullKeySetRoundTrips = new LongAdder();
+
+    /**
+     * Records one finished reconciliation with a quorum member
+     * @param bytes Bytes of tables, key sets and id requests exchanged
+     * @param roundTrips Request / reply pairs exchanged
+     * @param retries Times the table was too small and had to be resent larger
+     * @param fellBack Whether the full key set had to be sent in the end
+     * @param senderKeys Size of the sending node's key set
+     * @param missing Number of ids the receiving node asked for
+     */
+    public void record(long bytes, int roundTrips, int retries, boolean fellBack, int senderKeys, int missing) {
+        syncs.increment();
+        this.bytes.add(bytes);
+        this.roundTrips.add(roundTrips);
+        this.retries.add(retries);
+        if (fellBack) fallbacks.increment();
+        fullKeySetBytes.add((long) (senderKeys + missing) * InvertibleBloomFilter.KEY_LENGTH);
+        fullKeySetRoundTrips.add(missing > 0 ? 2 : 1);
+    }
+
+    public long getBytes() { return bytes.sum(); }
+    public long getRoundTrips() { return roundTrips.sum(); }
+    public long getFullKeySetBytes() { return fullKeySetBytes.sum(); }
+    public long getFullKeySetRoundTrips() { return fullKeySetRoundTrips.sum(); }
+
+    @Override
+    public String toString() {
+        return "syncs: " + syncs.sum() + ", bytes: " + bytes.sum() + " (full key sets: " + fullKeySetBytes.sum()
+                + "), round trips: " + roundTrips.sum() + " (full key sets: " + fullKeySetRoundTrips.sum()
+                + "), retries: " + retries.sum() + ", fallbacks: " + fallbacks.sum();
+    }
+}
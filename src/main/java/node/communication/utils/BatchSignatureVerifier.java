@@ -0,0 +1,120 @@
+package node.communication.utils;
+
+import node.communication.BlockSignature;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies a batch of block signatures in parallel and stops as soon as the outcome is known, either
+ * because enough signatures verified or because too many failed for the threshold to be reached.
+ */
+public class BatchSignatureVerifier {
+    private static final BatchSignatureVerifier SHARED =
+            new BatchSignatureVerifier(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+
+    private final ForkJoinPool pool;
+    private final LongAdder batches;
+    private final LongAdder batchNanos;
+    private final LongAdder verifications;
+
+    public BatchSignatureVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+        this.batches = new LongAdder();
+        this.batchNanos = new LongAdder();
+        this.verifications = new LongAdder();
+    }
+
+    /**
+     * @return The verifier shared by every node in this process
+     */
+    public static BatchSignatureVerifier getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Verifies signatures over a hash against each signer's registered key
+     * @param hash Hash every signature should be over
+     * @param signatures Signatures to check
+     * @param threshold Number of valid signatures needed
+     * @return Outcome of the batch. Signatures left unchecked once the outcome was known are not counted
+     */
+    public Result verify(String hash, List<BlockSignature> signatures, int threshold) {
+        long start = System.nanoTime();
+        AtomicInteger verified = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(signatures.size());
+        CompletableFuture<Void> decided = new CompletableFuture<>();
+        int maxFailures = signatures.size() - threshold;
+
+        if (threshold <= 0 || maxFailures < 0 || signatures.isEmpty()) {
+            decided.complete(null);
+        }
+        for (BlockSignature signature : signatures) {
+            if (decided.isDone()) break;
+            pool.execute(() -> {
+                try {
+                    if (decided.isDone()) return;
+                    verifications.increment();
+                    if (DSA.verifySignatureFromRegistry(hash, signature.getSignature(), signature.getAddress())) {
+                        if (verified.incrementAndGet() >= threshold) decided.complete(null);
+                    } else if (failed.incrementAndGet() > maxFailures) {
+                        decided.complete(null);
+                    }
+                } catch (RuntimeException e) {
+                    /* A signer without a readable key counts as a bad signature */
+                    if (failed.incrementAndGet() > maxFailures) decided.complete(null);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) decided.complete(null);
+                }
+            });
+        }
+        decided.join();
+
+        long nanos = System.nanoTime() - start;
+        batches.increment();
+        batchNanos.add(nanos);
+        return new Result(verified.get(), failed.get(), verified.get() >= threshold, nanos);
+    }
+
+    /**
+     * @return Average latency of the batches verified so far
+     */
+    public long getAverageBatchNanos() {
+        long count = batches.sum();
+        return count == 0 ? 0 : batchNanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "batches: " + batches.sum() + ", verifications: " + verifications.sum()
+                + ", avg batch ms: " + getAverageBatchNanos() / 1_000_000.0;
+    }
+
+    public static class Result {
+        private final int verified;
+        private final int failed;
+        private final boolean thresholdReached;
+        private final long nanos;
+
+        Result(int verified, int failed, boolean thresholdReached, long nanos) {
+            this.verified = verified;
+            this.failed = failed;
+            this.thresholdReached = thresholdReached;
+            this.nanos = nanos;
+        }
+
+        public int getVerified() { return verified; }
+        public int getFailed() { return failed; }
+        public boolean isThresholdReached() { return thresholdReached; }
+        public long getNanos() { return nanos; }
+
+        @Override
+        public String toString() {
+            return "verified " + verified + ", failed " + failed + " in " + nanos / 1_000_000.0 + " ms";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package node.communication.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size Bloom filter over strings. Answers "definitely absent" or "possibly present".
+ * <p>
+ * One thread at a time may add keys while any number look them up. The bits are atomic, so a key is seen
+ * by every lookup that starts after its add returns and the filter never gives a false negative.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final int numBits;
+    private final int numHashes;
+    private final int capacity;
+    private int size;
+
+    /**
+     * @param capacity Number of keys the filter is sized for
+     * @param falsePositiveRate Wanted false positive rate once capacity keys are added
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = Math.max(1, capacity);
+        long m = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.numBits = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, m));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+        this.bits = new AtomicLongArray((numBits + 63) >>> 6);
+    }
+
+    public void add(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h1 + i * h2);
+            bits.accumulateAndGet(bit >>> 6, 1L << bit, (word, mask) -> word | mask);
+        }
+        size++;
+    }
+
+    public boolean mightContain(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True once more keys were added than the filter was sized for
+     */
+    public boolean isFull() {
+        return size > capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int index(long hash) {
+        return (int) ((hash >>> 1) % numBits);
+    }
+
+    private static long hash(String key, long seed) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        /* Finalizer from MurmurHash3, spreads the bits of the last characters */
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,44 @@
+package node.communication.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes of the blocks whose quorum certificates a node has already verified. A block hash commits to
+ * the block, so once one certificate for it checked out, later copies need not be verified again.
+ */
+public class CertificateCache {
+    private final LinkedHashMap<String, Boolean> verified;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param capacity Most recently verified hashes to remember
+     */
+    public CertificateCache(int capacity) {
+        this.verified = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public synchronized boolean isVerified(String blockHash) {
+        boolean found = verified.get(blockHash) != null;
+        (found ? hits : misses).increment();
+        return found;
+    }
+
+    public synchronized void markVerified(String blockHash) {
+        verified.put(blockHash, Boolean.TRUE);
+    }
+
+    @Override
+    public String toString() {
+        return "certificate cache hits: " + hits.sum() + ", misses: " + misses.sum();
+    }
+}
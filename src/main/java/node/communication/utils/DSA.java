@@ -11,6 +11,15 @@ import java.util.Arrays;
 import java.util.Base64;
 
 public class DSA {
+    /* Signature objects are costly to look up and not thread safe, so each thread keeps its own */
+    private static final ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA1withDSA", "SUN");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
     /* Used https://www.javatpoint.com/java-digital-signature */
     public static KeyPair generateDSAKeyPair(){
         try {
@@ -27,8 +36,7 @@ public class DSA {
     }
 
     public static void writePubKeyToRegistry(Address myAddress, PublicKey key){
-        String path = "./src/main/java/node/nodeRegistry/";
-        String file = path + myAddress.getHost() + "_" + String.valueOf(myAddress.getPort()) + ".txt";
+        String file = KeyRegistry.REGISTRY_PATH + KeyRegistry.fileName(myAddress);
         byte[] keyBytes = key.getEncoded();
         try {
             FileOutputStream fout = new FileOutputStream(file);
@@ -37,16 +45,17 @@ public class DSA {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        KeyRegistry.getInstance().put(myAddress, key);
     }
 
     public static byte[] signHash(String hash, PrivateKey key) {
         try {
             byte[] hashBytes = hash.getBytes();
-            Signature dsa = Signature.getInstance("SHA1withDSA", "SUN");
+            Signature dsa = SIGNATURE.get();
             dsa.initSign(key);
             dsa.update(hashBytes);
             return dsa.sign();
-        } catch (NoSuchAlgorithmException | SignatureException | InvalidKeyException | NoSuchProviderException e) {
+        } catch (SignatureException | InvalidKeyException e) {
             throw new RuntimeException(e);
         }
     }
@@ -56,40 +65,28 @@ public class DSA {
             X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(publicKey);
             KeyFactory keyFactory = KeyFactory.getInstance("DSA", "SUN");
             PublicKey pubKey = keyFactory.generatePublic(pubKeySpec);
-            Signature sig = Signature.getInstance("SHA1withDSA", "SUN");
-            sig.initVerify(pubKey);
-            byte[] hashBytes = hash.getBytes();
-            sig.update(hashBytes);
-            return sig.verify(signature);
-        } catch ( NoSuchAlgorithmException | InvalidKeySpecException | NoSuchProviderException |
-                 InvalidKeyException | SignatureException e) {
+            return verifySignature(hash, signature, pubKey);
+        } catch ( NoSuchAlgorithmException | InvalidKeySpecException | NoSuchProviderException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static boolean verifySignatureFromRegistry(String hash, byte[] signature, Address address){
+    public static boolean verifySignature(String hash, byte[] signature, PublicKey pubKey){
         try {
-            String path = "./src/main/java/node/nodeRegistry/";
-            String file = path + address.getHost() + "_" + String.valueOf(address.getPort()) + ".txt";
-            FileInputStream keyfis = new FileInputStream(file);
-            byte[] encKey = new byte[keyfis.available()];  //byte array converted into the encoded public key bytes
-            keyfis.read(encKey);
-            keyfis.close();
-            X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(encKey);
-            KeyFactory keyFactory = KeyFactory.getInstance("DSA", "SUN");
-            PublicKey pubKey = keyFactory.generatePublic(pubKeySpec);
-            Signature sig = Signature.getInstance("SHA1withDSA", "SUN");
+            Signature sig = SIGNATURE.get();
             sig.initVerify(pubKey);
-
             byte[] hashBytes = hash.getBytes();
             sig.update(hashBytes);
             return sig.verify(signature);
-        } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException | NoSuchProviderException |
-                 InvalidKeyException | SignatureException e) {
+        } catch (InvalidKeyException | SignatureException e) {
             throw new RuntimeException(e);
         }
     }
 
+    public static boolean verifySignatureFromRegistry(String hash, byte[] signature, Address address){
+        return verifySignature(hash, signature, KeyRegistry.getInstance().getKey(address));
+    }
+
     public static byte[] stringToBytes(String byteString){
         return Base64.getDecoder().decode(byteString);
     }
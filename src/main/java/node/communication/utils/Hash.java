@@ -0,0 +1,91 @@
+package node.communication.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An immutable SHA-256 digest. Compares and hashes on the raw bytes, so it can key maps without
+ * going through a 64 character hex string.
+ */
+public final class Hash implements Comparable<Hash>, Serializable {
+    private final byte[] bytes;
+    private transient int hashCode;
+
+    private Hash(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Takes ownership of a digest without copying it
+     */
+    static Hash wrap(byte[] bytes) {
+        if (bytes.length != Hashing.SHA_LENGTH) throw new IllegalArgumentException("Not a SHA-256 digest");
+        return new Hash(bytes);
+    }
+
+    public static Hash of(byte[] bytes) {
+        return wrap(bytes.clone());
+    }
+
+    /**
+     * @param hex 64 hex digits, as produced by Hashing.getSHAString
+     */
+    public static Hash fromHex(String hex) {
+        if (hex.length() != 2 * Hashing.SHA_LENGTH) throw new IllegalArgumentException("Not a SHA-256 hex string");
+        byte[] bytes = new byte[Hashing.SHA_LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((hexDigit(hex.charAt(2 * i)) << 4) | hexDigit(hex.charAt(2 * i + 1)));
+        }
+        return new Hash(bytes);
+    }
+
+    private static int hexDigit(char c) {
+        int digit = Character.digit(c, 16);
+        if (digit < 0) throw new IllegalArgumentException("Bad hex digit " + c);
+        return digit;
+    }
+
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Copies the digest into a caller-owned buffer
+     */
+    public void copyTo(byte[] out, int offset) {
+        System.arraycopy(bytes, 0, out, offset, bytes.length);
+    }
+
+    public String toHex() {
+        return Hashing.toHexString(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Hash)) return false;
+        return Arrays.equals(bytes, ((Hash) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        /* The digest is already uniformly distributed, so its first four bytes make a fine hash code */
+        if (hashCode == 0) {
+            hashCode = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+        }
+        return hashCode;
+    }
+
+    /**
+     * Orders the same way as the hex strings do
+     */
+    @Override
+    public int compareTo(Hash o) {
+        return Arrays.compareUnsigned(bytes, o.bytes);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -2,56 +2,100 @@ package node.communication.utils;
 
 import node.blockchain.Block;
 
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 
 
 public class Hashing {
+    public static final int SHA_LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /* MessageDigest is not thread safe, so each thread keeps one and resets it between uses */
+    private static final ThreadLocal<MessageDigest> SHA = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * @return This thread's SHA-256 digest, reset and ready to be fed
+     */
+    public static MessageDigest sha() {
+        MessageDigest md = SHA.get();
+        md.reset();
+        return md;
+    }
 
     //toHexString(getSHA(s3))
     public static byte[] getSHA(String input) throws NoSuchAlgorithmException
     {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        return md.digest(input.getBytes(StandardCharsets.UTF_8));
+        return getSHA(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] getSHA(byte[] input) {
+        return sha().digest(input);
+    }
+
+    /**
+     * Hashes input into a caller-owned buffer rather than allocating a new array
+     * @param out Receives the 32 byte digest at outOffset
+     */
+    public static void getSHA(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest md = sha();
+        md.update(input, offset, length);
+        try {
+            md.digest(out, outOffset, SHA_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public static Hash getSHAHash(String input) {
+        return Hash.wrap(getSHA(input.getBytes(StandardCharsets.UTF_8)));
     }
 
     public static String toHexString(byte[] hash)
     {
-        BigInteger number = new BigInteger(1, hash);
-        StringBuilder hexString = new StringBuilder(number.toString(16));
+        char[] hex = new char[Math.max(64, 2 * hash.length)];
+        int pad = hex.length - 2 * hash.length;
 
         // Pad with leading zeros
-        while (hexString.length() < 64)
-        {
-            hexString.insert(0, '0');
+        for (int i = 0; i < pad; i++) hex[i] = '0';
+        for (int i = 0; i < hash.length; i++) {
+            int b = hash[i] & 0xFF;
+            hex[pad + 2 * i] = HEX[b >>> 4];
+            hex[pad + 2 * i + 1] = HEX[b & 0x0F];
         }
-
-        return hexString.toString();
+        return new String(hex);
     }
 
     public static String getSHAString(String input) {
-        try {
-            return toHexString(getSHA(input));
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return toHexString(getSHA(input.getBytes(StandardCharsets.UTF_8)));
     }
 
-    public static String getBlockHash(Block block, int nonce) throws NoSuchAlgorithmException {
+    /**
+     * Hashes prevBlockHash, blockId, nonce and the sorted transaction keys as one string, feeding the digest
+     * piece by piece rather than building the string. Blocks memoize the nonce 0 hash, see Block.getHash.
+     */
+    public static String getBlockHash(Block block, int nonce) {
         List<String> txList = new ArrayList<>(block.getTxList().keySet());
         Collections.sort(txList);
-        String txString = "";
+
+        MessageDigest md = sha();
+        md.update(block.getPrevBlockHash().getBytes(StandardCharsets.UTF_8));
+        md.update(String.valueOf(block.getBlockId()).getBytes(StandardCharsets.UTF_8));
+        md.update(String.valueOf(nonce).getBytes(StandardCharsets.UTF_8));
         for(String key : txList){
-            txString = txString.concat(key);
+            md.update(key.getBytes(StandardCharsets.UTF_8));
         }
-        String blockString = block.getPrevBlockHash().concat(String.valueOf(block.getBlockId())).concat(String.valueOf(nonce).concat(txString));
-        return getSHAString(blockString);
+        return toHexString(md.digest());
     }
 }
@@ -0,0 +1,85 @@
+package node.communication.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Compares the original getSHAString, which looked up a new MessageDigest per call and hex encoded through
+ * BigInteger, with the thread-local digest and table-driven encoding, and hex string map keys with Hash keys.
+ * <p>
+ * Usage: HashingBenchmark [iterations]
+ */
+public class HashingBenchmark {
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        String[] inputs = new String[1024];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = Hashing.getSHAString("transaction " + i) + Hashing.getSHAString("block " + i);
+        }
+
+        System.out.printf("%-32s %10s%n", "operation", "ns/op");
+        for (int round = 0; round < 2; round++) {
+            /* The first round only warms up the JIT */
+            boolean print = round == 1;
+
+            int sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += legacySHAString(inputs[i & 1023]).length();
+            report(print, "getSHAString (original)", start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += Hashing.getSHAString(inputs[i & 1023]).length();
+            report(print, "getSHAString", start, iterations);
+
+            byte[] out = new byte[Hashing.SHA_LENGTH];
+            byte[][] raw = new byte[inputs.length][];
+            for (int i = 0; i < inputs.length; i++) raw[i] = inputs[i].getBytes(StandardCharsets.UTF_8);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                byte[] input = raw[i & 1023];
+                Hashing.getSHA(input, 0, input.length, out, 0);
+                sink += out[0];
+            }
+            report(print, "getSHA into buffer", start, iterations);
+
+            HashMap<String, Integer> byString = new HashMap<>();
+            HashMap<Hash, Integer> byHash = new HashMap<>();
+            String[] stringKeys = new String[inputs.length];
+            Hash[] hashKeys = new Hash[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                stringKeys[i] = new String(Hashing.getSHAString(inputs[i]).toCharArray());
+                hashKeys[i] = Hash.fromHex(stringKeys[i]);
+                byString.put(Hashing.getSHAString(inputs[i]), i);
+                byHash.put(Hashing.getSHAHash(inputs[i]), i);
+            }
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += byString.get(stringKeys[i & 1023]);
+            report(print, "map lookup, hex key", start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += byHash.get(hashKeys[i & 1023]);
+            report(print, "map lookup, Hash key", start, iterations);
+
+            if (sink == 42) System.out.println();
+        }
+    }
+
+    private static void report(boolean print, String operation, long start, int iterations) {
+        if (print) System.out.printf("%-32s %10d%n", operation, (System.nanoTime() - start) / iterations);
+    }
+
+    private static String legacySHAString(String input) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        BigInteger number = new BigInteger(1, md.digest(input.getBytes(StandardCharsets.UTF_8)));
+        StringBuilder hexString = new StringBuilder(number.toString(16));
+        while (hexString.length() < 64) {
+            hexString.insert(0, '0');
+        }
+        return hexString.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package node.communication.utils;
+
+import node.communication.Address;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Parsed public keys of every node in the node registry directory, shared by all nodes in this process.
+ * Keys are read once and kept up to date by watching the directory, so verifying a signature no longer
+ * touches the disk.
+ */
+public class KeyRegistry {
+    public static final String REGISTRY_PATH = "./src/main/java/node/nodeRegistry/";
+
+    private static KeyRegistry instance;
+
+    private final Path directory;
+    private final ConcurrentHashMap<Address, PublicKey> keys;
+
+    private KeyRegistry(Path directory) {
+        this.directory = directory;
+        this.keys = new ConcurrentHashMap<>();
+    }
+
+    public static synchronized KeyRegistry getInstance() {
+        if (instance == null) {
+            instance = new KeyRegistry(Paths.get(REGISTRY_PATH));
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * @return The key registered for the address
+     * @throws RuntimeException If the address has no readable key
+     */
+    public PublicKey getKey(Address address) {
+        PublicKey key = keys.get(address);
+        if (key != null) return key;
+
+        /* The watcher may not have caught up with a node which registered a moment ago */
+        try {
+            key = readKey(directory.resolve(fileName(address)));
+        } catch (IOException | InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+        keys.put(address, key);
+        return key;
+    }
+
+    /**
+     * Records a key written to the registry by a node in this process
+     */
+    public void put(Address address, PublicKey key) {
+        keys.put(address, key);
+    }
+
+    public static String fileName(Address address) {
+        return address.getHost() + "_" + address.getPort() + ".txt";
+    }
+
+    private void start() {
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            /* Keys are still read on first use, they just won't be refreshed */
+            System.out.println("KeyRegistry: not watching " + directory + ". " + e);
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*_*.txt")) {
+            for (Path file : files) load(file);
+        } catch (IOException e) {
+            System.out.println("KeyRegistry: " + e);
+        }
+
+        Thread thread = new Thread(() -> watch(watcher), "key-registry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(WatchService watcher) {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == OVERFLOW) continue;
+                Path file = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_DELETE) {
+                    Address address = addressOf(file);
+                    if (address != null) keys.remove(address);
+                } else {
+                    load(file);
+                }
+            }
+            if (!watchKey.reset()) return;
+        }
+    }
+
+    private void load(Path file) {
+        Address address = addressOf(file);
+        if (address == null) return;
+        try {
+            keys.put(address, readKey(file));
+        } catch (IOException | InvalidKeySpecException e) {
+            /* Most likely caught mid-write, the modify event that follows will load it */
+        }
+    }
+
+    private static Address addressOf(Path file) {
+        String name = file.getFileName().toString();
+        int separator = name.lastIndexOf('_');
+        if (separator < 0 || !name.endsWith(".txt")) return null;
+        try {
+            int port = Integer.parseInt(name.substring(separator + 1, name.length() - ".txt".length()));
+            return new Address(port, name.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static PublicKey readKey(Path file) throws IOException, InvalidKeySpecException {
+        byte[] encKey = Files.readAllBytes(file);
+        try {
+            return KeyFactory.getInstance("DSA", "SUN").generatePublic(new X509EncodedKeySpec(encKey));
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package node.communication.utils;
 
 import node.blockchain.ml_verification.ModelData;
+import node.blockchain.ml_verification.WeightAnalysisCache;
 
-import java.io.*;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -22,64 +25,18 @@ public class TaskDelegation {
         return resultArray;
     }
 
+    /**
+     * Finds the training intervals whose weights moved suspiciously far, from the model's exported snapshots.
+     * Each distinct model is analysed once per JVM, and once per cache directory
+     * @return The suspicious intervals, or none if the snapshots cannot be analysed
+     */
     public List<Integer> weightAnalysis(String snapshotsFilePath) {
         try {
-            List<String> command = new ArrayList<>();
-            command.add("C:\\Users\\kjsta\\Projects\\BlueChain\\venv\\Scripts\\python.exe");
-            command.add("weight_analysis.py");
-
-            File file = new File(snapshotsFilePath);
-            if (!file.exists()) throw new FileNotFoundException(snapshotsFilePath);
-
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            Map<String, String> env = processBuilder.environment();
-            // Maybe remove
-            env.put("KMP_DUPLICATE_LIB_OK", "TRUE");
-            Process process = processBuilder.start();
-
-            OutputStreamWriter writer = new OutputStreamWriter(process.getOutputStream());
-            writer.write(snapshotsFilePath + "\n");
-            writer.flush();
-
-            InputStream inputStream = process.getInputStream();
-            InputStream errorStream = process.getErrorStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(errorStream));
-            String line;
-            StringBuilder outputBuilder = new StringBuilder();
-            StringBuilder errorBuilder = new StringBuilder();
-            while ((line = reader.readLine()) != null) {
-                outputBuilder.append(line);
-            }
-            while ((line = errorReader.readLine()) != null) {
-                errorBuilder.append(line);
-            }
-
-            int exitCode = process.waitFor();
-
-            String outputString = outputBuilder.toString().trim();
-            String errorString = errorBuilder.toString().trim();
-
-            System.out.println("Output: " + outputString);
-            System.out.println("Error: " + errorString);
-
-            if (exitCode != 0) {
-                throw new RuntimeException("Python script execution failed with exit code: " + exitCode);
-            }
-
-            List<Integer> outputArray = new ArrayList<>();
-            if (!outputString.isEmpty()) {
-                String[] numberStrings = outputString.replaceAll("\\[|\\]", "").split(",");
-                for (String numberString : numberStrings) {
-                    outputArray.add(Integer.parseInt(numberString.trim()));
-                }
-            }
-
-            return outputArray;
-        } catch (IOException | InterruptedException | RuntimeException e) {
-            System.out.println("Error executing python script");
-            e.printStackTrace();
-            return Arrays.asList(4, 10, 13);
+            return WeightAnalysisCache.getShared().analyse(Paths.get(snapshotsFilePath));
+        } catch (IOException | InvalidPathException e) {
+            /* Every quorum member fails alike, so they still derive the same tasks */
+            System.out.println("Weight analysis of " + snapshotsFilePath + " failed, no interval is suspicious. " + e);
+            return new ArrayList<>();
         }
     }
 
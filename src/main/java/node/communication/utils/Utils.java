@@ -3,15 +3,14 @@ package node.communication.utils;
 import node.blockchain.Block;
 import node.blockchain.Transaction;
 import node.blockchain.ml_verification.MLBlock;
+import node.blockchain.store.BlockStore;
 import node.communication.Address;
 
 import java.security.*;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
-import static node.communication.utils.Hashing.getBlockHash;
 
 public class Utils {
 
@@ -34,45 +33,23 @@ public class Utils {
         }
     }
 
-    public static String chainString(LinkedList<Block> blockChain){
-        String hash = null;
-        String chainString = "Chain: [";
-
-
-        if(blockChain.size() > 6){
-            // Print out whole chain
-            for (int i = 0; i < blockChain.size(); i++) {
-                Block currBlock = blockChain.get(i);
-                try {
-                    hash = getBlockHash(blockChain.get(i), 0).substring(0, 4);
-                } catch (NoSuchAlgorithmException e) {
-                    e.printStackTrace();
-                }
-                if(blockChain.get(i).getTxList().size() > 0){
-                    hash = hash.concat(" tx{" + blockChain.get(i).getTxList().values() + "}");
-                }
-                if (currBlock instanceof MLBlock) {
-                    hash = hash.concat(" verified: " + ((MLBlock) currBlock).isVerified());
-                }
-                chainString = chainString.concat(blockChain.get(i).getBlockId() + " " + hash + ", ");
+    /**
+     * Renders every block still stored, with its transactions. Walks and decodes the whole chain, so it is
+     * only for on-demand debugging; ChainStatusReporter keeps the per-block log line cheap
+     */
+    public static String chainString(BlockStore blockChain){
+        StringBuilder chainString = new StringBuilder("Chain: [");
+        for(Block block : blockChain){
+            chainString.append(block.getBlockId()).append(' ').append(block.getHash(), 0, 4);
+            if(block.getTxList().size() > 0){
+                chainString.append(" tx{").append(block.getTxList().values()).append('}');
             }
-        }else{
-            for(Block block : blockChain){
-                try {
-                    hash = getBlockHash(block, 0).substring(0, 4);
-                } catch (NoSuchAlgorithmException e) {
-                    e.printStackTrace();
-                }
-                if(block.getTxList().size() > 0){
-                    hash = hash.concat(" tx{" + block.getTxList().values() + "}");
-                }
-                if (block instanceof MLBlock) {
-                    hash = hash.concat(" verified: " + ((MLBlock) block).isVerified());
-                }
-                chainString = chainString.concat(block.getBlockId() + " " + hash + ", ");
+            if (block instanceof MLBlock) {
+                chainString.append(" verified: ").append(((MLBlock) block).isVerified());
             }
-        }    
-        return chainString.concat("]");
+            chainString.append(", ");
+        }
+        return chainString.append(']').toString();
     }
 
     /**
@@ -90,12 +67,10 @@ public class Utils {
         return false;
     }
 
+    /**
+     * @param mempool Map keyed by transaction id, as mempools are
+     */
     public static boolean containsTransactionInMap(Transaction transaction, HashMap<String, Transaction> mempool){
-        for(Map.Entry<String, Transaction> entry : mempool.entrySet()){
-            if (entry.getValue().equals(transaction)) {
-                return true;
-            }
-        }
-        return false;
+        return mempool.containsKey(transaction.getId());
     }
 }
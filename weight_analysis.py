@@ -2,12 +2,17 @@ import sys
 import json
 import os
 import re
+import struct
 import numpy as np
 
 from keras.models import load_model
 
 THRESHOLD = 4  # Constant threshold value
 
+# Header of the .tensors files read by the node's WeightSnapshot
+TENSORS_MAGIC = 0x42435754
+TENSORS_VERSION = 1
+
 
 def compare_weights(model1, model2):
     """Compare weights of two models."""
@@ -23,11 +28,16 @@ def extract_number(filename):
     return int(match.group()) if match else -1
 
 
+def list_snapshots(model_dir):
+    """Snapshot names of a model, in training order."""
+    return sorted((filename for filename in os.listdir(model_dir) if re.match(r'^\d+$', filename)),
+                  key=extract_number)
+
+
 def weight_analysis(model_dir):
     """Analyze model weights of each training interval."""
     bad_iterations = []
-    model_snapshots = sorted((filename for filename in os.listdir(model_dir) if re.match(r'^\d+$', filename)),
-                             key=extract_number)
+    model_snapshots = list_snapshots(model_dir)
 
     for i in range(1, len(model_snapshots)):
         model1 = load_model(os.path.join(model_dir, model_snapshots[i - 1]))
@@ -40,7 +50,29 @@ def weight_analysis(model_dir):
     return bad_iterations
 
 
+def export_tensors(model_dir):
+    """Write each snapshot's weights to <snapshot>.tensors, the format the node analyses them from.
+
+    Big-endian: int magic, int version, int tensor count, then per tensor int rank, int[rank] shape and
+    its float32 values in row-major order.
+    """
+    for snapshot in list_snapshots(model_dir):
+        weights = load_model(os.path.join(model_dir, snapshot)).get_weights()
+        with open(os.path.join(model_dir, snapshot + ".tensors"), "wb") as out:
+            out.write(struct.pack(">iii", TENSORS_MAGIC, TENSORS_VERSION, len(weights)))
+            for tensor in weights:
+                out.write(struct.pack(">i", tensor.ndim))
+                out.write(struct.pack(">%di" % tensor.ndim, *tensor.shape))
+                out.write(np.ascontiguousarray(tensor, dtype=">f4").tobytes())
+
+
 if __name__ == "__main__":
+    if len(sys.argv) > 2 and sys.argv[1] == "--export":
+        # python weight_analysis.py --export <model dir>...
+        for directory in sys.argv[2:]:
+            export_tensors(directory)
+        exit(0)
+
     input_string = sys.stdin.readline().strip()
     result = weight_analysis(input_string)
     print(json.dumps(result))